@@ -2,6 +2,7 @@
 plugins {
     java
     application
+    id("me.champeau.gradle.jmh") version "0.4.8"
 }
 
 java {
@@ -33,6 +34,14 @@ val run by tasks.getting(JavaExec::class) {
     standardInput = System.`in`
 }
 
+// YCSB-style load, options are passed like -PloadArgs="--workload=b --threads=8"
+val load by tasks.registering(JavaExec::class) {
+    classpath = sourceSets["main"].runtimeClasspath
+    main = "ru.mail.polis.LoadGenerator"
+    maxHeapSize = "128m"
+    args = (findProperty("loadArgs") as String?)?.split(" ") ?: emptyList()
+}
+
 tasks {
     test {
         maxHeapSize = "128m"
@@ -40,6 +49,17 @@ tasks {
     }
 }
 
+jmh {
+    jmhVersion = "1.21"
+
+    // The same heap limit as the application, so flushes and caches behave alike
+    jvmArgs = listOf("-Xmx128m")
+    fork = 1
+
+    // A regexp selecting benchmarks to run, e.g. gradle jmh -PjmhInclude=GetBenchmark
+    (findProperty("jmhInclude") as String?)?.let { include = listOf(it) }
+}
+
 application {
     // Define the main class for the application
     mainClassName = "ru.mail.polis.Client"
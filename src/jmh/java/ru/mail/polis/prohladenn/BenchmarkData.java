@@ -0,0 +1,112 @@
+package ru.mail.polis.prohladenn;
+
+import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.DAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Generates and stores data for benchmarks.
+ *
+ * <p>Keys are a filler followed by a zero-padded number, so they are sorted
+ * by their numbers. Stored keys have even numbers and odd ones are missing.
+ */
+final class BenchmarkData {
+    static final int KEYS = 1 << 15;
+
+    private static final int DIGITS = 10;
+    private static final byte FILLER = 'k';
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Returns the configuration without background compaction,
+     * so the number of FileTables stays as populated.
+     */
+    @NotNull
+    static Config.Builder config() {
+        return Config.builder().compactionStrategy(files -> null);
+    }
+
+    @NotNull
+    static ByteBuffer key(
+            final long number,
+            final int size) {
+        if (size < DIGITS) {
+            throw new IllegalArgumentException("Key of " + size + " bytes is too short");
+        }
+        final byte[] key = new byte[size];
+        final byte[] digits = String.format("%0" + DIGITS + "d", number).getBytes(StandardCharsets.US_ASCII);
+        Arrays.fill(key, 0, size - DIGITS, FILLER);
+        System.arraycopy(digits, 0, key, size - DIGITS, DIGITS);
+        return ByteBuffer.wrap(key);
+    }
+
+    @NotNull
+    static ByteBuffer value(
+            @NotNull final Random random,
+            final int size) {
+        final byte[] value = new byte[size];
+        random.nextBytes(value);
+        return ByteBuffer.wrap(value);
+    }
+
+    /**
+     * Returns keys of random stored or missing records.
+     */
+    @NotNull
+    static ByteBuffer[] keys(
+            @NotNull final Random random,
+            final int count,
+            final int size,
+            final boolean stored) {
+        final ByteBuffer[] result = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = key(2L * random.nextInt(KEYS) + (stored ? 0 : 1), size);
+        }
+        return result;
+    }
+
+    /**
+     * Stores {@link #KEYS} records in the given number of FileTables.
+     * Every table spans the whole key range, like ones flushed under uniform load.
+     */
+    static void populate(
+            @NotNull final File data,
+            final int keySize,
+            final int valueSize,
+            final int tables) throws IOException {
+        final Random random = new Random(0);
+        for (int table = 0; table < tables; table++) {
+            final Config config = config().flushThreshold(Long.MAX_VALUE).build();
+            try (DAO dao = new LSMDao(data, config, false)) {
+                for (int i = table; i < KEYS; i += tables) {
+                    dao.upsert(key(2L * i, keySize), value(random, valueSize));
+                }
+            }
+        }
+    }
+
+    @NotNull
+    static File createDirectory() throws IOException {
+        return Files.createTempDirectory("lsm-benchmark").toFile();
+    }
+
+    static void deleteDirectory(@NotNull final File data) throws IOException {
+        try (Stream<Path> paths = Files.walk(data.toPath())) {
+            for (final Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package ru.mail.polis.prohladenn;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.mail.polis.DAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Major compactions of FileTables spanning the whole key range.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompactBenchmark {
+    @Param({"16", "100"})
+    private int keySize;
+
+    @Param({"100", "1024"})
+    private int valueSize;
+
+    @Param({"4", "16"})
+    private int tables;
+
+    private File data;
+    private DAO dao;
+
+    @Setup(Level.Invocation)
+    public void setUp() throws IOException {
+        data = BenchmarkData.createDirectory();
+        BenchmarkData.populate(data, keySize, valueSize, tables);
+        dao = new LSMDao(data, BenchmarkData.config().build(), false);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() throws IOException {
+        dao.close();
+        BenchmarkData.deleteDirectory(data);
+    }
+
+    @Benchmark
+    public void compact() throws IOException {
+        dao.compact();
+    }
+}
@@ -0,0 +1,85 @@
+package ru.mail.polis.prohladenn;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Writes of a full MemTable to a FileTable.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FlushBenchmark {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    @Param({"16", "100"})
+    private int keySize;
+
+    @Param({"100", "1024"})
+    private int valueSize;
+
+    @Param({"none", "deflate"})
+    private String compression;
+
+    @Param({"false", "true"})
+    private boolean offHeap;
+
+    private File data;
+    private File file;
+    private Config config;
+    private MemTable memTable;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        data = BenchmarkData.createDirectory();
+        file = new File(data, "flush.dat");
+        config = Config.builder()
+                .compression("deflate".equals(compression) ? new DeflateCodec(Deflater.BEST_SPEED) : null)
+                .offHeapMemTables(offHeap)
+                .build();
+
+        // As much as is flushed at once by default
+        memTable = MemTable.create(config);
+        final Random random = new Random(0);
+        for (int i = 0; memTable.sizeInBytes() < config.getFlushThreshold(); i++) {
+            memTable.upsert(BenchmarkData.key(i, keySize), BenchmarkData.value(random, valueSize));
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteFile() throws IOException {
+        Files.delete(file.toPath());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkData.deleteDirectory(data);
+    }
+
+    @Benchmark
+    public long flush() throws IOException {
+        return FileTable.write(memTable.iterator(EMPTY), file, config);
+    }
+}
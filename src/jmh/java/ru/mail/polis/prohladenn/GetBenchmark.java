@@ -0,0 +1,84 @@
+package ru.mail.polis.prohladenn;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.mail.polis.DAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point lookups of stored and missing keys.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GetBenchmark {
+    private static final int LOOKUPS = 4096;
+
+    @Param({"16", "100"})
+    private int keySize;
+
+    @Param({"100", "1024"})
+    private int valueSize;
+
+    @Param({"1", "4", "16"})
+    private int tables;
+
+    private File data;
+    private DAO dao;
+    private ByteBuffer[] stored;
+    private ByteBuffer[] missing;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        data = BenchmarkData.createDirectory();
+        BenchmarkData.populate(data, keySize, valueSize, tables);
+        dao = new LSMDao(data, BenchmarkData.config().build(), false);
+        final Random random = new Random(1);
+        stored = BenchmarkData.keys(random, LOOKUPS, keySize, true);
+        missing = BenchmarkData.keys(random, LOOKUPS, keySize, false);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        dao.close();
+        BenchmarkData.deleteDirectory(data);
+    }
+
+    @Benchmark
+    public ByteBuffer hit() throws IOException {
+        next = (next + 1) % LOOKUPS;
+        return dao.get(stored[next]);
+    }
+
+    @Benchmark
+    public boolean miss() throws IOException {
+        next = (next + 1) % LOOKUPS;
+        try {
+            dao.get(missing[next]);
+            return true;
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+}
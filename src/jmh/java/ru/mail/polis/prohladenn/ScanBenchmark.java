@@ -0,0 +1,95 @@
+package ru.mail.polis.prohladenn;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.mail.polis.DAO;
+import ru.mail.polis.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scans of a given number of records from random keys.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScanBenchmark {
+    private static final int SCANS = 1024;
+
+    @Param({"16", "100"})
+    private int keySize;
+
+    @Param({"100", "1024"})
+    private int valueSize;
+
+    @Param({"1", "4", "16"})
+    private int tables;
+
+    @Param({"1", "10", "100", "1000"})
+    private int length;
+
+    private File data;
+    private DAO dao;
+    private ByteBuffer[] from;
+    private ByteBuffer[] to;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        data = BenchmarkData.createDirectory();
+        BenchmarkData.populate(data, keySize, valueSize, tables);
+        dao = new LSMDao(data, BenchmarkData.config().build(), false);
+        final Random random = new Random(1);
+        from = new ByteBuffer[SCANS];
+        to = new ByteBuffer[SCANS];
+        for (int i = 0; i < SCANS; i++) {
+            final long start = 2L * random.nextInt(BenchmarkData.KEYS - length);
+            from[i] = BenchmarkData.key(start, keySize);
+            to[i] = BenchmarkData.key(start + 2L * length, keySize);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        dao.close();
+        BenchmarkData.deleteDirectory(data);
+    }
+
+    @Benchmark
+    public void iterator(final Blackhole blackhole) throws IOException {
+        next = (next + 1) % SCANS;
+        final Iterator<Record> records = dao.iterator(from[next]);
+        for (int i = 0; i < length && records.hasNext(); i++) {
+            blackhole.consume(records.next());
+        }
+    }
+
+    @Benchmark
+    public void range(final Blackhole blackhole) throws IOException {
+        next = (next + 1) % SCANS;
+        final Iterator<Record> records = dao.range(from[next], to[next]);
+        while (records.hasNext()) {
+            blackhole.consume(records.next());
+        }
+    }
+}
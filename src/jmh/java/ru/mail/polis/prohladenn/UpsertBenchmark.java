@@ -0,0 +1,88 @@
+package ru.mail.polis.prohladenn;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.mail.polis.DAO;
+import ru.mail.polis.WriteBatch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes of random keys with the default configuration,
+ * so background flushes and compactions are included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class UpsertBenchmark {
+    private static final int WRITES = 4096;
+    private static final int BATCH = 64;
+
+    @Param({"16", "100"})
+    private int keySize;
+
+    @Param({"100", "1024"})
+    private int valueSize;
+
+    @Param({"false", "true"})
+    private boolean offHeap;
+
+    private File data;
+    private DAO dao;
+    private ByteBuffer[] keys;
+    private ByteBuffer value;
+    private WriteBatch batch;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        data = BenchmarkData.createDirectory();
+        dao = new LSMDao(data, Config.builder().offHeapMemTables(offHeap).build(), false);
+        final Random random = new Random(1);
+        keys = BenchmarkData.keys(random, WRITES, keySize, true);
+        value = BenchmarkData.value(random, valueSize);
+        batch = new WriteBatch(BATCH);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        dao.close();
+        BenchmarkData.deleteDirectory(data);
+    }
+
+    @Benchmark
+    public void upsert() throws IOException {
+        next = (next + 1) % WRITES;
+        dao.upsert(keys[next], value);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void batch() throws IOException {
+        batch.clear();
+        for (int i = 0; i < BATCH; i++) {
+            next = (next + 1) % WRITES;
+            batch.upsert(keys[next], value);
+        }
+        dao.write(batch);
+    }
+}
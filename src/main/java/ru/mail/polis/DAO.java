@@ -96,6 +96,21 @@ public interface DAO extends Closeable {
      */
     void remove(@NotNull ByteBuffer key) throws IOException;
 
+    /**
+     * Applies mutations of the batch in order.
+     * Implementations may apply them atomically and cheaper than one by one.
+     */
+    default void write(@NotNull WriteBatch batch) throws IOException {
+        for (int i = 0; i < batch.size(); i++) {
+            final ByteBuffer value = batch.getValue(i);
+            if (value == null) {
+                remove(batch.getKey(i));
+            } else {
+                upsert(batch.getKey(i), value);
+            }
+        }
+    }
+
     /**
      * Perform compaction.
      */
@@ -17,7 +17,9 @@
 package ru.mail.polis;
 
 import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.prohladenn.Config;
 import ru.mail.polis.prohladenn.LSMDao;
+import ru.mail.polis.prohladenn.MemoryBudget;
 
 import java.io.File;
 import java.io.IOException;
@@ -44,7 +46,7 @@ public final class DAOFactory {
     @NotNull
     public static DAO create(@NotNull final File data) throws IOException {
         check(data);
-        return new LSMDao(data, MAX_HEAP / 60, false);
+        return new LSMDao(data, config(), false);
     }
 
     /**
@@ -60,7 +62,14 @@ public final class DAOFactory {
             return create(data);
         }
         check(data);
-        return new LSMDao(data, MAX_HEAP / 60, true);
+        return new LSMDao(data, config(), true);
+    }
+
+    @NotNull
+    private static Config config() {
+        return Config.builder()
+                .memoryBudget(MemoryBudget.ofHeap())
+                .build();
     }
 
     private static void check(@NotNull final File data) {
@@ -0,0 +1,103 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Random;
+
+/**
+ * Chooses indices of existing records for {@link LoadGenerator} like YCSB does.
+ */
+interface KeyDistribution {
+    /**
+     * Chooses a record.
+     *
+     * @param random   source of randomness of the calling thread
+     * @param inserted number of records inserted so far
+     * @return index of a record in range {@code [0, inserted)}
+     */
+    long next(
+            @NotNull Random random,
+            long inserted);
+
+    /**
+     * Creates the distribution by name.
+     *
+     * @param name    {@code uniform}, {@code zipfian} or {@code latest}
+     * @param records number of records loaded initially
+     * @return the distribution
+     */
+    @NotNull
+    static KeyDistribution of(
+            @NotNull final String name,
+            final long records) {
+        switch (name) {
+            case "uniform":
+                return (random, inserted) -> (long) (random.nextDouble() * inserted);
+            case "zipfian":
+                // Popular records are spread over the key space instead of being the first ones
+                final Zipfian zipfian = new Zipfian(records);
+                return (random, inserted) -> Math.floorMod(Zipfian.scramble(zipfian.next(random)), records);
+            case "latest":
+                final Zipfian recent = new Zipfian(records);
+                return (random, inserted) -> Math.max(0L, inserted - 1 - recent.next(random));
+            default:
+                throw new IllegalArgumentException("Unknown distribution: " + name);
+        }
+    }
+
+    /**
+     * Zipfian distribution over {@code [0, items)} with the YCSB skew,
+     * generated as described by Gray et al. in "Quickly Generating
+     * Billion-Record Synthetic Databases".
+     */
+    final class Zipfian {
+        private static final double THETA = 0.99;
+
+        private final long items;
+        private final double zetan;
+        private final double alpha;
+        private final double eta;
+        private final double secondBound;
+
+        Zipfian(final long items) {
+            if (items <= 0L) {
+                throw new IllegalArgumentException("Non-positive item count: " + items);
+            }
+            this.items = items;
+            this.zetan = zeta(items);
+            this.alpha = 1.0 / (1.0 - THETA);
+            this.eta = (1.0 - Math.pow(2.0 / items, 1.0 - THETA)) / (1.0 - zeta(2) / zetan);
+            this.secondBound = 1.0 + Math.pow(0.5, THETA);
+        }
+
+        private static double zeta(final long n) {
+            double sum = 0.0;
+            for (long i = 1; i <= n; i++) {
+                sum += 1.0 / Math.pow(i, THETA);
+            }
+            return sum;
+        }
+
+        static long scramble(final long value) {
+            // FNV-1a over the bytes of the value
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < Long.BYTES; i++) {
+                hash ^= (value >>> (i * Byte.SIZE)) & 0xff;
+                hash *= 0x100000001b3L;
+            }
+            return hash;
+        }
+
+        long next(@NotNull final Random random) {
+            final double u = random.nextDouble();
+            final double uz = u * zetan;
+            if (uz < 1.0) {
+                return 0L;
+            }
+            if (uz < secondBound) {
+                return 1L;
+            }
+            return Math.min(items - 1, (long) (items * Math.pow(eta * u - eta + 1.0, alpha)));
+        }
+    }
+}
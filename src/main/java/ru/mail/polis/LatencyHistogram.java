@@ -0,0 +1,156 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-linear histogram of latencies in the manner of HdrHistogram.
+ *
+ * <p>Every power of two is split into {@code 2^PRECISION} equal buckets,
+ * so recorded values are kept with a relative error under 1% in constant
+ * memory. Recording is lock-free, so threads may share a histogram; values
+ * recorded concurrently with reading may or may not be seen. Buckets and the
+ * maximum are striped, so threads recording the same latency don't contend
+ * for a single counter.
+ */
+public final class LatencyHistogram {
+    private static final int PRECISION = 7;
+    private static final int SUB_BUCKETS = 1 << PRECISION;
+
+    // An hour in nanoseconds fits 42 bits, longer values are clamped
+    private static final int MAX_EXPONENT = 41;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private final LongAdder[] counts = new LongAdder[SUB_BUCKETS * (MAX_EXPONENT - PRECISION + 2)];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    /**
+     * Creates an empty histogram.
+     */
+    public LatencyHistogram() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records the value.
+     *
+     * @param value non-negative value, usually nanoseconds
+     */
+    public void record(final long value) {
+        if (value < 0L) {
+            throw new IllegalArgumentException("Negative value: " + value);
+        }
+        final long clamped = Math.min(value, MAX_VALUE);
+        counts[indexOf(clamped)].increment();
+        count.increment();
+        sum.add(clamped);
+        max.accumulate(clamped);
+    }
+
+    /**
+     * Adds values recorded by the other histogram to this one.
+     */
+    public void add(@NotNull final LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            final long added = other.counts[i].sum();
+            if (added != 0L) {
+                counts[i].add(added);
+            }
+        }
+        count.add(other.count.sum());
+        sum.add(other.sum.sum());
+        max.accumulate(other.max.get());
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        final long n = count.sum();
+        return n == 0L ? 0.0 : (double) sum.sum() / n;
+    }
+
+    public long getP50() {
+        return percentile(50);
+    }
+
+    public long getP90() {
+        return percentile(90);
+    }
+
+    public long getP99() {
+        return percentile(99);
+    }
+
+    public long getP999() {
+        return percentile(99.9);
+    }
+
+    /**
+     * Returns the value which the given percentage of recorded values doesn't exceed.
+     *
+     * @param percentile percentage in range {@code [0, 100]}
+     * @return the upper bound of the bucket containing the percentile or {@code 0} if empty
+     */
+    public long percentile(final double percentile) {
+        if (percentile < 0.0 || percentile > 100.0) {
+            throw new IllegalArgumentException("Percentile out of range: " + percentile);
+        }
+
+        // Buckets are summed up rather than the count taken, so they agree under concurrent recording
+        long total = 0L;
+        final long[] snapshot = new long[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            snapshot[i] = counts[i].sum();
+            total += snapshot[i];
+        }
+        if (total == 0L) {
+            return 0L;
+        }
+        final long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0L;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), Math.max(max.get(), lowestValueOf(i)));
+            }
+        }
+        return max.get();
+    }
+
+    private static int indexOf(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - PRECISION;
+        final int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS * (shift + 1) + subBucket;
+    }
+
+    private static long lowestValueOf(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+    }
+
+    private static long highestValueOf(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        return lowestValueOf(index) + (1L << (index / SUB_BUCKETS - 1)) - 1;
+    }
+}
@@ -0,0 +1,380 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Multi-threaded YCSB-style workload driver for the {@link DAO} created by {@link DAOFactory}.
+ *
+ * <p>Loads the given number of records and then runs a mix of operations
+ * for the given time printing throughput and latency percentiles of every
+ * operation. Options are passed as {@code --name=value}:
+ * <ul>
+ * <li>{@code data} - storage folder, {@code data} by default</li>
+ * <li>{@code workload} - YCSB workload {@code a} to {@code f} setting the mix and the distribution</li>
+ * <li>{@code read}, {@code update}, {@code insert}, {@code scan}, {@code delete},
+ * {@code rmw} - proportions of operations overriding the workload</li>
+ * <li>{@code distribution} - {@code uniform}, {@code zipfian} or {@code latest}</li>
+ * <li>{@code threads}, {@code records}, {@code duration} in seconds, {@code value} size in bytes
+ * and maximal {@code scanLength}</li>
+ * <li>{@code load} - whether to load the records first, {@code true} by default</li>
+ * </ul>
+ */
+public final class LoadGenerator {
+    private static final Logger log = LoggerFactory.getLogger(LoadGenerator.class);
+    private static final long STATUS_INTERVAL_MILLIS = 10_000L;
+
+    enum Operation {
+        READ("read"),
+        UPDATE("update"),
+        INSERT("insert"),
+        SCAN("scan"),
+        DELETE("delete"),
+        READ_MODIFY_WRITE("rmw");
+
+        private final String option;
+
+        Operation(@NotNull final String option) {
+            this.option = option;
+        }
+    }
+
+    private final DAO dao;
+    private final int valueSize;
+    private final int maxScanLength;
+    private final KeyDistribution distribution;
+    private final double[] mix;
+    private final AtomicLong inserted;
+    private final LongAdder done = new LongAdder();
+    private final LongAdder notFound = new LongAdder();
+
+    private LoadGenerator(
+            @NotNull final DAO dao,
+            @NotNull final Map<String, String> options,
+            final long records) {
+        this.dao = dao;
+        this.valueSize = Integer.parseInt(options.get("value"));
+        this.maxScanLength = Integer.parseInt(options.get("scanLength"));
+        this.distribution = KeyDistribution.of(options.get("distribution"), records);
+        this.inserted = new AtomicLong(records);
+
+        // Cumulative proportions of operations
+        this.mix = new double[Operation.values().length];
+        double total = 0.0;
+        for (final Operation operation : Operation.values()) {
+            total += Double.parseDouble(options.get(operation.option));
+            mix[operation.ordinal()] = total;
+        }
+        if (total <= 0.0) {
+            throw new IllegalArgumentException("No operations to run");
+        }
+        for (int i = 0; i < mix.length; i++) {
+            mix[i] /= total;
+        }
+    }
+
+    /**
+     * Returns the key of the record like YCSB does, so records are inserted in random key order.
+     */
+    @NotNull
+    private static ByteBuffer key(final long index) {
+        final long hash = KeyDistribution.Zipfian.scramble(index) & Long.MAX_VALUE;
+        return ByteBuffer.wrap(String.format("user%019d", hash).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @NotNull
+    private ByteBuffer value(@NotNull final Random random) {
+        final byte[] value = new byte[valueSize];
+        random.nextBytes(value);
+        return ByteBuffer.wrap(value);
+    }
+
+    @NotNull
+    private static Map<String, String> parse(@NotNull final String[] args) {
+        final Map<String, String> options = new HashMap<>();
+        options.put("data", "data");
+        options.put("threads", "4");
+        options.put("records", "100000");
+        options.put("duration", "60");
+        options.put("value", "1024");
+        options.put("scanLength", "100");
+        options.put("load", "true");
+        options.put("workload", "a");
+        for (final String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Expected --name=value instead of " + arg);
+            }
+            options.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+
+        // The workload provides defaults for the mix and the distribution
+        final Map<String, String> workload = workload(options.get("workload"));
+        for (final Operation operation : Operation.values()) {
+            workload.putIfAbsent(operation.option, "0");
+        }
+        for (final Map.Entry<String, String> entry : workload.entrySet()) {
+            options.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+        return options;
+    }
+
+    @NotNull
+    private static Map<String, String> workload(@NotNull final String name) {
+        final Map<String, String> result = new HashMap<>();
+        switch (name) {
+            case "a":
+                // Update heavy
+                result.put("read", "0.5");
+                result.put("update", "0.5");
+                result.put("distribution", "zipfian");
+                break;
+            case "b":
+                // Read mostly
+                result.put("read", "0.95");
+                result.put("update", "0.05");
+                result.put("distribution", "zipfian");
+                break;
+            case "c":
+                // Read only
+                result.put("read", "1");
+                result.put("distribution", "zipfian");
+                break;
+            case "d":
+                // Read latest
+                result.put("read", "0.95");
+                result.put("insert", "0.05");
+                result.put("distribution", "latest");
+                break;
+            case "e":
+                // Short ranges
+                result.put("scan", "0.95");
+                result.put("insert", "0.05");
+                result.put("distribution", "zipfian");
+                break;
+            case "f":
+                // Read-modify-write
+                result.put("read", "0.5");
+                result.put("rmw", "0.5");
+                result.put("distribution", "zipfian");
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown workload: " + name);
+        }
+        return result;
+    }
+
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        final Map<String, String> options = parse(args);
+        final File data = new File(options.get("data"));
+        if (!data.exists() && !data.mkdirs()) {
+            throw new IOException("Can't create directory: " + data);
+        }
+        if (!data.isDirectory()) {
+            throw new IOException("Not directory: " + data);
+        }
+
+        final int threads = Integer.parseInt(options.get("threads"));
+        final long records = Long.parseLong(options.get("records"));
+        final long duration = TimeUnit.SECONDS.toMillis(Long.parseLong(options.get("duration")));
+        log.info("Running with {}", options);
+        try (DAO dao = DAOFactory.create(data)) {
+            final LoadGenerator generator = new LoadGenerator(dao, options, records);
+            final ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                if (Boolean.parseBoolean(options.get("load"))) {
+                    generator.load(executor, threads, records);
+                }
+                generator.run(executor, threads, duration);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private void load(
+            @NotNull final ExecutorService executor,
+            final int threads,
+            final long records) throws IOException, InterruptedException {
+        final AtomicLong next = new AtomicLong();
+        final List<Future<Map<Operation, LatencyHistogram>>> futures = new ArrayList<>(threads);
+        final long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> {
+                final LatencyHistogram histogram = new LatencyHistogram();
+                final Random random = ThreadLocalRandom.current();
+                for (long index = next.getAndIncrement(); index < records; index = next.getAndIncrement()) {
+                    final long started = System.nanoTime();
+                    dao.upsert(key(index), value(random));
+                    histogram.record(System.nanoTime() - started);
+                    done.increment();
+                }
+                final Map<Operation, LatencyHistogram> result = new EnumMap<>(Operation.class);
+                result.put(Operation.INSERT, histogram);
+                return result;
+            }));
+        }
+        report("Load", futures, start);
+    }
+
+    private void run(
+            @NotNull final ExecutorService executor,
+            final int threads,
+            final long durationMillis) throws IOException, InterruptedException {
+        final long start = System.nanoTime();
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        final List<Future<Map<Operation, LatencyHistogram>>> futures = new ArrayList<>(threads);
+        done.reset();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> {
+                final Map<Operation, LatencyHistogram> result = new EnumMap<>(Operation.class);
+                for (final Operation operation : Operation.values()) {
+                    result.put(operation, new LatencyHistogram());
+                }
+                final Random random = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline) {
+                    final Operation operation = choose(random);
+                    final long started = System.nanoTime();
+                    execute(operation, random);
+                    result.get(operation).record(System.nanoTime() - started);
+                    done.increment();
+                }
+                return result;
+            }));
+        }
+
+        // Progress
+        long lastTime = start;
+        long lastDone = 0L;
+        while (System.nanoTime() < deadline) {
+            Thread.sleep(Math.min(
+                    STATUS_INTERVAL_MILLIS,
+                    Math.max(1L, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()))));
+            final long time = System.nanoTime();
+            final long current = done.sum();
+            log.info("{} s: {} operations, {} ops/s",
+                    TimeUnit.NANOSECONDS.toSeconds(time - start),
+                    current,
+                    (current - lastDone) * TimeUnit.SECONDS.toNanos(1) / Math.max(1L, time - lastTime));
+            lastTime = time;
+            lastDone = current;
+        }
+        report("Run", futures, start);
+        log.info("Records not found: {}", notFound.sum());
+    }
+
+    @NotNull
+    private Operation choose(@NotNull final Random random) {
+        final double point = random.nextDouble();
+        final Operation[] operations = Operation.values();
+        for (int i = 0; i < operations.length - 1; i++) {
+            if (point < mix[i]) {
+                return operations[i];
+            }
+        }
+        return operations[operations.length - 1];
+    }
+
+    private void execute(
+            @NotNull final Operation operation,
+            @NotNull final Random random) throws IOException {
+        switch (operation) {
+            case READ:
+                read(key(distribution.next(random, inserted.get())));
+                break;
+            case UPDATE:
+                dao.upsert(key(distribution.next(random, inserted.get())), value(random));
+                break;
+            case INSERT:
+                dao.upsert(key(inserted.getAndIncrement()), value(random));
+                break;
+            case SCAN:
+                final Iterator<Record> records = dao.iterator(key(distribution.next(random, inserted.get())));
+                final int length = 1 + random.nextInt(maxScanLength);
+                for (int i = 0; i < length && records.hasNext(); i++) {
+                    records.next();
+                }
+                break;
+            case DELETE:
+                dao.remove(key(distribution.next(random, inserted.get())));
+                break;
+            case READ_MODIFY_WRITE:
+                final ByteBuffer key = key(distribution.next(random, inserted.get()));
+                read(key);
+                dao.upsert(key, value(random));
+                break;
+            default:
+                throw new IllegalStateException("Unsupported operation: " + operation);
+        }
+    }
+
+    private void read(@NotNull final ByteBuffer key) throws IOException {
+        try {
+            dao.get(key);
+        } catch (NoSuchElementException e) {
+            notFound.increment();
+        }
+    }
+
+    private static void report(
+            @NotNull final String phase,
+            @NotNull final List<Future<Map<Operation, LatencyHistogram>>> futures,
+            final long start) throws IOException, InterruptedException {
+        final Map<Operation, LatencyHistogram> total = new EnumMap<>(Operation.class);
+        for (final Future<Map<Operation, LatencyHistogram>> future : futures) {
+            try {
+                for (final Map.Entry<Operation, LatencyHistogram> entry : future.get().entrySet()) {
+                    total.computeIfAbsent(entry.getKey(), operation -> new LatencyHistogram()).add(entry.getValue());
+                }
+            } catch (ExecutionException e) {
+                throw new IOException("Worker failed", e.getCause());
+            }
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        long count = 0L;
+        for (final LatencyHistogram histogram : total.values()) {
+            count += histogram.getCount();
+        }
+        log.info(String.format("%s: %d operations in %.1f s, %.0f ops/s", phase, count, seconds, count / seconds));
+        for (final Map.Entry<Operation, LatencyHistogram> entry : total.entrySet()) {
+            final LatencyHistogram histogram = entry.getValue();
+            if (histogram.getCount() == 0L) {
+                continue;
+            }
+            log.info(String.format(
+                    "%-17s %10d ops %10.0f ops/s, us: mean %.1f p50 %.1f p90 %.1f p99 %.1f p99.9 %.1f max %.1f",
+                    entry.getKey(),
+                    histogram.getCount(),
+                    histogram.getCount() / seconds,
+                    histogram.getMean() / 1e3,
+                    histogram.percentile(50) / 1e3,
+                    histogram.percentile(90) / 1e3,
+                    histogram.percentile(99) / 1e3,
+                    histogram.percentile(99.9) / 1e3,
+                    histogram.getMax() / 1e3));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ordered list of upserts and removes applied by {@link DAO#write(WriteBatch)} at once.
+ * A later mutation of a key in the batch wins over an earlier one.
+ *
+ * <p>Keys and values are not copied, so they must not be changed until the batch is written.
+ * A batch may be reused after {@link #clear()}.
+ */
+public final class WriteBatch {
+    private final List<ByteBuffer> keys;
+    private final List<ByteBuffer> values;
+
+    public WriteBatch() {
+        this(16);
+    }
+
+    /**
+     * Creates a batch expecting the given number of mutations.
+     *
+     * @param capacity expected number of mutations
+     */
+    public WriteBatch(final int capacity) {
+        this.keys = new ArrayList<>(capacity);
+        this.values = new ArrayList<>(capacity);
+    }
+
+    /**
+     * Adds an upsert of the key.
+     *
+     * @return this batch
+     */
+    @NotNull
+    public WriteBatch upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) {
+        keys.add(key.duplicate());
+        values.add(value.duplicate());
+        return this;
+    }
+
+    /**
+     * Adds a removal of the key.
+     *
+     * @return this batch
+     */
+    @NotNull
+    public WriteBatch remove(@NotNull final ByteBuffer key) {
+        keys.add(key.duplicate());
+        values.add(null);
+        return this;
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    public boolean isEmpty() {
+        return keys.isEmpty();
+    }
+
+    public void clear() {
+        keys.clear();
+        values.clear();
+    }
+
+    @NotNull
+    public ByteBuffer getKey(final int i) {
+        return keys.get(i).duplicate();
+    }
+
+    /**
+     * Returns the value of the i-th mutation.
+     *
+     * @return the value or {@code null} for a removal
+     */
+    @Nullable
+    public ByteBuffer getValue(final int i) {
+        final ByteBuffer value = values.get(i);
+        return value == null ? null : value.duplicate();
+    }
+}
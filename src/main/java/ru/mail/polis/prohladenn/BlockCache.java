@@ -0,0 +1,246 @@
+package ru.mail.polis.prohladenn;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size-bounded cache of {@link FileTable} blocks shared by all tables using it.
+ *
+ * <p>Eviction is segmented LRU: a block enters the probationary segment and
+ * moves to the protected one on the second hit. Only probationary blocks are
+ * evicted while there are any, so a scan reading every block once can't wipe
+ * out the hot set. The cache is split into independently locked shards.
+ */
+public final class BlockCache {
+    private static final int SHARDS = 16;
+    private static final AtomicLong TABLE_IDS = new AtomicLong();
+
+    private final Shard[] shards;
+    private final boolean offHeap;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates the cache.
+     *
+     * @param capacity maximal size of cached blocks in bytes
+     * @param offHeap  whether blocks are copied to direct buffers instead of the heap
+     */
+    public BlockCache(
+            final long capacity,
+            final boolean offHeap) {
+        if (capacity <= 0L) {
+            throw new IllegalArgumentException("Non-positive capacity: " + capacity);
+        }
+        this.offHeap = offHeap;
+        this.shards = new Shard[SHARDS];
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard(capacity / SHARDS);
+        }
+    }
+
+    /**
+     * Returns a unique identifier to key blocks of a table with.
+     * File paths are not unique, since compaction reuses them.
+     */
+    static long nextTableId() {
+        return TABLE_IDS.incrementAndGet();
+    }
+
+    /**
+     * Looks the block up.
+     *
+     * @param table  identifier of the table
+     * @param offset offset of the block in the table
+     * @return the cached block or {@code null}
+     */
+    @Nullable
+    ByteBuffer get(
+            final long table,
+            final long offset) {
+        final Key key = new Key(table, offset);
+        final ByteBuffer result = shard(key).get(key);
+        if (result == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return result;
+    }
+
+    /**
+     * Caches the block.
+     *
+     * @param table  identifier of the table
+     * @param offset offset of the block in the table
+     * @param block  contents of the block
+     * @param owned  whether the block is a heap buffer nobody else refers to,
+     *               which an on-heap cache keeps without copying
+     * @return the cached block or the given one if it doesn't fit the cache
+     */
+    @NotNull
+    ByteBuffer put(
+            final long table,
+            final long offset,
+            @NotNull final ByteBuffer block,
+            final boolean owned) {
+        final Key key = new Key(table, offset);
+        final Shard shard = shard(key);
+        if (block.remaining() > shard.capacity) {
+            return block;
+        }
+        if (owned && !offHeap) {
+            return shard.put(key, block.slice());
+        }
+        final ByteBuffer copy = offHeap
+                ? ByteBuffer.allocateDirect(block.remaining())
+                : ByteBuffer.allocate(block.remaining());
+        copy.put(block.duplicate());
+        copy.flip();
+        return shard.put(key, copy);
+    }
+
+    @NotNull
+    private Shard shard(@NotNull final Key key) {
+        return shards[(key.hashCode() & Integer.MAX_VALUE) % SHARDS];
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the size of cached blocks in bytes.
+     */
+    public long sizeInBytes() {
+        long result = 0L;
+        for (final Shard shard : shards) {
+            result += shard.sizeInBytes();
+        }
+        return result;
+    }
+
+    private static final class Key {
+        private final long table;
+        private final long offset;
+
+        Key(
+                final long table,
+                final long offset) {
+            this.table = table;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return table == key.table && offset == key.offset;
+        }
+
+        @Override
+        public int hashCode() {
+            // Offsets are often multiples of a power of two, so all bits are mixed
+            long h = table * 0x9E3779B97F4A7C15L + offset;
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            return (int) h;
+        }
+    }
+
+    private final class Shard {
+        private final long capacity;
+        private final long protectedCapacity;
+        private final Map<Key, ByteBuffer> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final Map<Key, ByteBuffer> protect = new LinkedHashMap<>(16, 0.75f, true);
+        private long probationBytes;
+        private long protectedBytes;
+
+        Shard(final long capacity) {
+            this.capacity = capacity;
+            this.protectedCapacity = capacity * 4 / 5;
+        }
+
+        synchronized long sizeInBytes() {
+            return probationBytes + protectedBytes;
+        }
+
+        @Nullable
+        synchronized ByteBuffer get(@NotNull final Key key) {
+            final ByteBuffer hot = protect.get(key);
+            if (hot != null) {
+                return hot;
+            }
+            final ByteBuffer block = probation.remove(key);
+            if (block == null) {
+                return null;
+            }
+
+            // The second hit promotes the block pushing the coldest protected ones back
+            probationBytes -= block.capacity();
+            protect.put(key, block);
+            protectedBytes += block.capacity();
+            final Iterator<Map.Entry<Key, ByteBuffer>> coldest = protect.entrySet().iterator();
+            while (protectedBytes > protectedCapacity) {
+                final Map.Entry<Key, ByteBuffer> entry = coldest.next();
+                coldest.remove();
+                protectedBytes -= entry.getValue().capacity();
+                probation.put(entry.getKey(), entry.getValue());
+                probationBytes += entry.getValue().capacity();
+            }
+            evict();
+            return block;
+        }
+
+        @NotNull
+        synchronized ByteBuffer put(
+                @NotNull final Key key,
+                @NotNull final ByteBuffer block) {
+            final ByteBuffer cached = protect.containsKey(key) ? protect.get(key) : probation.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            probation.put(key, block);
+            probationBytes += block.capacity();
+            evict();
+            return block;
+        }
+
+        private void evict() {
+            while (probationBytes + protectedBytes > capacity) {
+                final Map<Key, ByteBuffer> segment = probation.isEmpty() ? protect : probation;
+                final Iterator<ByteBuffer> coldest = segment.values().iterator();
+                final int size = coldest.next().capacity();
+                coldest.remove();
+                if (segment == probation) {
+                    probationBytes -= size;
+                } else {
+                    protectedBytes -= size;
+                }
+                evictions.increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package ru.mail.polis.prohladenn;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Immutable Bloom filter over the keys of a {@link FileTable}.
+ *
+ * <p>A key is mapped to {@code hashes} bits derived from a single 64-bit
+ * hash by double hashing. With {@code b} bits per key the false positive
+ * rate is about {@code 0.6185^b}, e.g. 1% for 10 bits.
+ */
+final class BloomFilter {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final int MAX_HASHES = 30;
+
+    private final long[] words;
+    private final int hashes;
+
+    private BloomFilter(
+            @NotNull final long[] words,
+            final int hashes) {
+        this.words = words;
+        this.hashes = hashes;
+    }
+
+    /**
+     * Builds the filter.
+     *
+     * @param keyHashes  {@link #hash} of every key
+     * @param count      number of keys
+     * @param bitsPerKey filter size per key, {@code 0} makes an empty filter matching everything
+     * @return the filter
+     */
+    @NotNull
+    static BloomFilter create(
+            @NotNull final long[] keyHashes,
+            final int count,
+            final int bitsPerKey) {
+        if (bitsPerKey == 0 || count == 0) {
+            return new BloomFilter(new long[0], 0);
+        }
+        final long bits = Math.max((long) count * bitsPerKey, Long.SIZE);
+        final long[] words = new long[(int) ((bits + Long.SIZE - 1) / Long.SIZE)];
+        final int hashes = (int) Math.max(1, Math.min(MAX_HASHES, Math.round(bitsPerKey * Math.log(2))));
+        final BloomFilter filter = new BloomFilter(words, hashes);
+        for (int i = 0; i < count; i++) {
+            filter.add(keyHashes[i]);
+        }
+        return filter;
+    }
+
+    /**
+     * Reads the filter written by {@link #toBuffer}.
+     *
+     * @param buffer serialized words
+     * @param hashes number of bits per key
+     * @return the filter
+     */
+    @NotNull
+    static BloomFilter read(
+            @NotNull final ByteBuffer buffer,
+            final int hashes) {
+        final long[] words = new long[buffer.remaining() / Long.BYTES];
+        buffer.duplicate().asLongBuffer().get(words);
+        return new BloomFilter(words, hashes);
+    }
+
+    /**
+     * Serializes the words of the filter.
+     */
+    @NotNull
+    ByteBuffer toBuffer() {
+        final ByteBuffer result = ByteBuffer.allocate(words.length * Long.BYTES);
+        result.asLongBuffer().put(words);
+        return result;
+    }
+
+    int getWordCount() {
+        return words.length;
+    }
+
+    int getHashes() {
+        return hashes;
+    }
+
+    /**
+     * Hashes the remaining bytes of the key without moving its position.
+     */
+    static long hash(@NotNull final ByteBuffer key) {
+        long h = FNV_OFFSET;
+        for (int i = key.position(); i < key.limit(); i++) {
+            h ^= key.get(i) & 0xFF;
+            h *= FNV_PRIME;
+        }
+
+        // Spread the bits, FNV alone is weak in the high half
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private void add(final long hash) {
+        final long bits = (long) words.length * Long.SIZE;
+        final int h1 = (int) hash;
+        final int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashes; i++) {
+            final long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bits;
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Checks the key.
+     *
+     * @param key key to look for
+     * @return {@code false} if the key is definitely absent
+     */
+    boolean mightContain(@NotNull final ByteBuffer key) {
+        if (words.length == 0) {
+            return true;
+        }
+        final long hash = hash(key);
+        final long bits = (long) words.length * Long.SIZE;
+        final int h1 = (int) hash;
+        final int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashes; i++) {
+            final long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bits;
+            if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
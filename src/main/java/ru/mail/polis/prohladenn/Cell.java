@@ -1,11 +1,20 @@
 package ru.mail.polis.prohladenn;
 
+import com.google.common.collect.Iterators;
+import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.Iters;
+
 import java.nio.ByteBuffer;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.Iterator;
 
 public final class Cell {
-    static final Comparator<Cell> COMPARATOR =
-            Comparator.comparing(Cell::getKey).thenComparing(Cell::getValue);
+    // Compares the fields, so that sorting doesn't allocate a read-only view of the key per comparison
+    static final Comparator<Cell> COMPARATOR = (a, b) -> {
+        final int result = a.key.compareTo(b.key);
+        return result == 0 ? a.value.compareTo(b.value) : result;
+    };
 
     private final ByteBuffer key;
     private final Value value;
@@ -15,6 +24,17 @@ public final class Cell {
         this.value = value;
     }
 
+    /**
+     * Merges sorted iterators leaving only the freshest cell of every key.
+     *
+     * @param iterators iterators sorted by {@link #COMPARATOR}
+     * @return sorted iterator over distinct keys, tombstones included
+     */
+    @NotNull
+    static Iterator<Cell> merge(@NotNull final Collection<Iterator<Cell>> iterators) {
+        return Iters.collapseEquals(Iterators.mergeSorted(iterators, COMPARATOR), Cell::getKey);
+    }
+
     public ByteBuffer getKey() {
         return key.asReadOnlyBuffer();
     }
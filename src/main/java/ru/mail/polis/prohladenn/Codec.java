@@ -0,0 +1,37 @@
+package ru.mail.polis.prohladenn;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compression of {@link FileTable} blocks.
+ *
+ * <p>The identifier is stored in the file, so a table is readable as long
+ * as a codec with the same identifier is configured or built in.
+ */
+public interface Codec {
+    /**
+     * Returns the positive identifier of the format, unique among codecs.
+     */
+    int getId();
+
+    /**
+     * Compresses the remaining bytes without moving the position of the source.
+     *
+     * @param raw uncompressed data
+     * @return compressed data
+     */
+    @NotNull
+    ByteBuffer compress(@NotNull ByteBuffer raw);
+
+    /**
+     * Decompresses the remaining bytes filling the destination up to its limit.
+     *
+     * @param compressed data produced by {@link #compress}
+     * @param raw        destination with exactly the uncompressed size remaining
+     * @throws IOException if the data is corrupted
+     */
+    void decompress(@NotNull ByteBuffer compressed, @NotNull ByteBuffer raw) throws IOException;
+}
@@ -0,0 +1,442 @@
+package ru.mail.polis.prohladenn;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * Segmented append-only log of MemTable mutations.
+ *
+ * <p>Every record is appended before the MemTable is changed, so the MemTable
+ * can be rebuilt after a crash. A segment becomes obsolete as soon as the
+ * MemTable it backs is written to a {@link FileTable}.
+ *
+ * <p>A segment starts with a long magic followed by records
+ * {@code [int size][int crc32c][int keySize][key][long timestamp][int valueSize][value]},
+ * where a negative timestamp marks a tombstone without a value. A record of
+ * a batch holds {@code [int -count]} followed by its mutations, so the batch
+ * is replayed either entirely or not at all. Replay stops
+ * at the first torn or corrupted record of a segment.
+ *
+ * <p>With {@link SyncPolicy#EVERY_WRITE} records of concurrent writers are
+ * group committed: a single writer thread drains all pending records, writes
+ * them with one gathering write, forces the segment once and only then
+ * releases the whole batch. Closing lets it write the records queued before.
+ */
+final class CommitLog implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(CommitLog.class);
+
+    private static final String PREFIX = "WAL";
+    private static final String SUFFIX = ".log";
+    private static final int MAX_BATCH = 1024;
+
+    private static final long MAGIC = 0xC57C4C6F67435243L;
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES * 2;
+
+    // Queued by close after the last record to write
+    private static final Commit CLOSE = new Commit(ByteBuffer.allocate(0));
+
+    private final File base;
+    private final ScheduledExecutorService syncer;
+    private final ExecutorService writer;
+    private final BlockingQueue<Commit> pending;
+    private final List<Path> replayed;
+    private FileChannel channel;
+    private int generation;
+    private boolean closed;
+
+    /**
+     * Opens the log in the given folder.
+     *
+     * @param base           folder with log segments
+     * @param generation     generation of the first new segment
+     * @param syncPolicy     when appended records are forced to disk
+     * @param intervalMillis period of {@link SyncPolicy#PERIODIC} syncs
+     * @throws IOException if an I/O error occurred
+     */
+    CommitLog(
+            @NotNull final File base,
+            final int generation,
+            @NotNull final SyncPolicy syncPolicy,
+            final long intervalMillis) throws IOException {
+        this.base = base;
+        this.generation = generation;
+        this.replayed = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(base.toPath(), PREFIX + "*" + SUFFIX)) {
+            stream.forEach(replayed::add);
+        }
+        replayed.sort(Comparator.comparingInt(CommitLog::generationOf));
+        if (syncPolicy == SyncPolicy.PERIODIC) {
+            this.syncer = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("commit-log-sync-%d")
+                            .setDaemon(true)
+                            .build());
+            syncer.scheduleWithFixedDelay(this::sync, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.syncer = null;
+        }
+        if (syncPolicy == SyncPolicy.EVERY_WRITE) {
+            this.pending = new LinkedBlockingQueue<>();
+            this.writer = Executors.newSingleThreadExecutor(
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("commit-log-writer-%d")
+                            .setDaemon(true)
+                            .build());
+            writer.execute(this::commitLoop);
+        } else {
+            this.pending = null;
+            this.writer = null;
+        }
+    }
+
+    private static int generationOf(@NotNull final Path segment) {
+        final String fileName = segment.getFileName().toString();
+        return Integer.parseInt(fileName.substring(PREFIX.length(), fileName.length() - SUFFIX.length()));
+    }
+
+    /**
+     * Applies records of all segments left by the previous run to the MemTable.
+     * A torn record at the end of a segment is treated as its end.
+     *
+     * @param memTable table to restore
+     * @throws IOException if an I/O error occurred
+     */
+    void replay(@NotNull final MemTable memTable) throws IOException {
+        for (final Path segment : replayed) {
+            final ByteBuffer records;
+            try (FileChannel fc = FileChannel.open(segment, StandardOpenOption.READ)) {
+                records = fc.map(FileChannel.MapMode.READ_ONLY, 0L, fc.size());
+            }
+            if (records.remaining() < Long.BYTES) {
+                // Created by a crashed run before the magic was written
+                continue;
+            }
+            if (records.getLong() != MAGIC) {
+                throw new IOException("Unsupported format of commit log segment " + segment);
+            }
+            while (records.remaining() >= RECORD_HEADER_SIZE) {
+                final int size = records.getInt();
+                final int checksum = records.getInt();
+                if (size <= 0 || size > records.remaining()) {
+                    log.warn("Torn record at {}:{}", segment, records.position() - RECORD_HEADER_SIZE);
+                    break;
+                }
+                final CRC32C crc = new CRC32C();
+                crc.update(records.duplicate().limit(records.position() + size));
+                if ((int) crc.getValue() != checksum) {
+                    log.warn("Corrupted record at {}:{}", segment, records.position() - RECORD_HEADER_SIZE);
+                    break;
+                }
+
+                final int first = records.getInt(records.position());
+                if (first < 0) {
+                    records.getInt();
+                    for (int i = 0; i < -first; i++) {
+                        replay(records, memTable);
+                    }
+                } else {
+                    replay(records, memTable);
+                }
+            }
+        }
+    }
+
+    private static void replay(
+            @NotNull final ByteBuffer records,
+            @NotNull final MemTable memTable) {
+        // Key
+        final ByteBuffer key = copy(records, records.getInt());
+
+        // Timestamp
+        final long timestamp = records.getLong();
+        Value.advance(Math.abs(timestamp));
+        if (timestamp < 0) {
+            memTable.put(key, new Value(-timestamp, null));
+        } else {
+            memTable.put(key, new Value(timestamp, copy(records, records.getInt())));
+        }
+    }
+
+    /**
+     * Drops replayed segments once their records are persisted in a {@link FileTable}.
+     *
+     * @throws IOException if an I/O error occurred
+     */
+    void discardReplayed() throws IOException {
+        for (final Path segment : replayed) {
+            Files.deleteIfExists(segment);
+        }
+        replayed.clear();
+    }
+
+    private static ByteBuffer copy(
+            @NotNull final ByteBuffer from,
+            final int size) {
+        final ByteBuffer slice = from.duplicate();
+        slice.limit(slice.position() + size);
+        from.position(from.position() + size);
+        final ByteBuffer result = ByteBuffer.allocate(size);
+        result.put(slice);
+        result.rewind();
+        return result;
+    }
+
+    /**
+     * Appends a MemTable mutation to the current segment.
+     * Returns once the record is as durable as the {@link SyncPolicy} requires.
+     *
+     * @param key   key of the mutation
+     * @param value new value or tombstone
+     * @throws IOException if an I/O error occurred
+     */
+    void append(
+            @NotNull final ByteBuffer key,
+            @NotNull final Value value) throws IOException {
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + sizeOf(key, value));
+        record.position(RECORD_HEADER_SIZE);
+        put(record, key, value);
+        commit(record);
+    }
+
+    /**
+     * Appends mutations of a batch as a single record.
+     *
+     * @param keys   keys of the mutations
+     * @param values new values or tombstones
+     * @throws IOException if an I/O error occurred
+     */
+    void append(
+            @NotNull final ByteBuffer[] keys,
+            @NotNull final Value[] values) throws IOException {
+        long size = Integer.BYTES;
+        for (int i = 0; i < keys.length; i++) {
+            size += sizeOf(keys[i], values[i]);
+        }
+        if (RECORD_HEADER_SIZE + size > Integer.MAX_VALUE) {
+            throw new IOException("Batch of " + size + " bytes is too large");
+        }
+        final ByteBuffer record = ByteBuffer.allocate((int) (RECORD_HEADER_SIZE + size));
+        record.position(RECORD_HEADER_SIZE);
+        record.putInt(-keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            put(record, keys[i], values[i]);
+        }
+        commit(record);
+    }
+
+    /**
+     * Completes the record header and writes the record, returning once
+     * it is as durable as the {@link SyncPolicy} requires.
+     */
+    private void commit(@NotNull final ByteBuffer record) throws IOException {
+        record.flip();
+        final CRC32C crc = new CRC32C();
+        crc.update(record.duplicate().position(RECORD_HEADER_SIZE));
+        record.putInt(0, record.remaining() - RECORD_HEADER_SIZE);
+        record.putInt(Integer.BYTES, (int) crc.getValue());
+        if (pending == null) {
+            synchronized (this) {
+                write(record);
+            }
+            return;
+        }
+
+        final Commit commit = new Commit(record);
+        synchronized (pending) {
+            if (closed) {
+                throw new IOException("Commit log is closed");
+            }
+            pending.add(commit);
+        }
+        try {
+            commit.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for commit");
+        } catch (ExecutionException e) {
+            throw new IOException("Can't commit record", e.getCause());
+        }
+    }
+
+    private void commitLoop() {
+        final List<Commit> batch = new ArrayList<>(MAX_BATCH);
+        boolean open = true;
+        while (open) {
+            try {
+                batch.add(pending.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            pending.drainTo(batch, MAX_BATCH - 1);
+
+            // Records queued before close are still written
+            open = !batch.remove(CLOSE);
+            if (batch.isEmpty()) {
+                continue;
+            }
+            final ByteBuffer[] records = new ByteBuffer[batch.size()];
+            for (int i = 0; i < records.length; i++) {
+                records[i] = batch.get(i).record;
+            }
+            try {
+                synchronized (this) {
+                    write(records);
+                    channel.force(false);
+                }
+                batch.forEach(commit -> commit.done.complete(null));
+            } catch (IOException e) {
+                batch.forEach(commit -> commit.done.completeExceptionally(e));
+            }
+            batch.clear();
+        }
+        final IOException failure = new IOException("Commit log is closed");
+        pending.forEach(commit -> commit.done.completeExceptionally(failure));
+    }
+
+    private void write(@NotNull final ByteBuffer... records) throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(
+                    segment(generation),
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+            final ByteBuffer magic = ByteBuffer.allocate(Long.BYTES).putLong(0, MAGIC);
+            while (magic.hasRemaining()) {
+                channel.write(magic);
+            }
+        }
+        final ByteBuffer last = records[records.length - 1];
+        while (last.hasRemaining()) {
+            channel.write(records);
+        }
+    }
+
+    private static int sizeOf(
+            @NotNull final ByteBuffer key,
+            @NotNull final Value value) {
+        final int valueSize = value.isRemoved() ? 0 : Integer.BYTES + value.getData().remaining();
+        return Integer.BYTES + key.remaining() + Long.BYTES + valueSize;
+    }
+
+    private static void put(
+            @NotNull final ByteBuffer record,
+            @NotNull final ByteBuffer key,
+            @NotNull final Value value) {
+        record.putInt(key.remaining());
+        record.put(key.duplicate());
+        if (value.isRemoved()) {
+            record.putLong(-value.getTimeStamp());
+        } else {
+            final ByteBuffer data = value.getData();
+            record.putLong(value.getTimeStamp());
+            record.putInt(data.remaining());
+            record.put(data);
+        }
+    }
+
+    private synchronized void sync() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            log.error("Can't sync commit log", e);
+        }
+    }
+
+    private Path segment(final int generation) {
+        return new File(base, PREFIX + generation + SUFFIX).toPath();
+    }
+
+    /**
+     * Closes the current segment, so that following records go to a new one.
+     * Must not race with {@link #append(ByteBuffer, Value)}.
+     *
+     * @param generation generation of the next segment
+     * @throws IOException if an I/O error occurred
+     */
+    synchronized void roll(final int generation) throws IOException {
+        closeSegment();
+        this.generation = generation;
+    }
+
+    /**
+     * Drops a closed segment once its records are persisted in a {@link FileTable}.
+     *
+     * @param generation generation of the segment
+     * @throws IOException if an I/O error occurred
+     */
+    synchronized void release(final int generation) throws IOException {
+        assert generation != this.generation || channel == null;
+        Files.deleteIfExists(segment(generation));
+    }
+
+    private void closeSegment() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private static final class Commit {
+        private final ByteBuffer record;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Commit(@NotNull final ByteBuffer record) {
+            this.record = record;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (syncer != null) {
+            syncer.shutdown();
+        }
+        if (writer != null) {
+            // Interrupting the writer would close the segment under a write in progress
+            synchronized (pending) {
+                closed = true;
+                pending.add(CLOSE);
+            }
+            writer.shutdown();
+            try {
+                if (!writer.awaitTermination(1, TimeUnit.MINUTES)) {
+                    log.warn("Commit log writer didn't stop in time");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while stopping commit log writer");
+            }
+        }
+        synchronized (this) {
+            closeSegment();
+        }
+    }
+}
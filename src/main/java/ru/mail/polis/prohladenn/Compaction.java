@@ -0,0 +1,80 @@
+package ru.mail.polis.prohladenn;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * FileTables chosen by a {@link CompactionStrategy} and where their merge goes.
+ */
+public final class Compaction {
+    private final List<FileTable> inputs;
+    private final int outputLevel;
+    private final long maxFileSize;
+
+    /**
+     * Describes a compaction.
+     *
+     * @param inputs      FileTables to merge
+     * @param outputLevel level of the resulting FileTables
+     * @param maxFileSize size after which the result is split into the next FileTable
+     */
+    public Compaction(
+            @NotNull final List<FileTable> inputs,
+            final int outputLevel,
+            final long maxFileSize) {
+        if (inputs.isEmpty()) {
+            throw new IllegalArgumentException("Nothing to compact");
+        }
+        if (outputLevel < 0) {
+            throw new IllegalArgumentException("Negative level: " + outputLevel);
+        }
+        if (maxFileSize <= 0L) {
+            throw new IllegalArgumentException("Non-positive file size: " + maxFileSize);
+        }
+        this.inputs = Collections.unmodifiableList(new ArrayList<>(inputs));
+        this.outputLevel = outputLevel;
+        this.maxFileSize = maxFileSize;
+    }
+
+    /**
+     * Merges FileTables into a single one of the level of the oldest input.
+     *
+     * @param inputs FileTables from the oldest to the newest
+     * @return the compaction
+     */
+    @NotNull
+    public static Compaction merge(@NotNull final List<FileTable> inputs) {
+        return new Compaction(inputs, inputs.isEmpty() ? 0 : inputs.get(0).getLevel(), Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns the tail of the FileTables which belongs to level 0.
+     *
+     * @param files live FileTables from the oldest to the newest
+     * @return FileTables of level 0 ordered by generation
+     */
+    @NotNull
+    static List<FileTable> level0(@NotNull final List<FileTable> files) {
+        int from = files.size();
+        while (from > 0 && files.get(from - 1).getLevel() == 0) {
+            from--;
+        }
+        return files.subList(from, files.size());
+    }
+
+    @NotNull
+    public List<FileTable> getInputs() {
+        return inputs;
+    }
+
+    public int getOutputLevel() {
+        return outputLevel;
+    }
+
+    public long getMaxFileSize() {
+        return maxFileSize;
+    }
+}
@@ -0,0 +1,44 @@
+package ru.mail.polis.prohladenn;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Chooses FileTables merged by the background compaction of {@link LSMDao}.
+ */
+public interface CompactionStrategy {
+    /**
+     * Selects the next tables to merge.
+     *
+     * <p>Tables of level 0 may overlap and are ordered by generation, so a merge
+     * staying in level 0 must take a contiguous run of them. Tables of the
+     * deeper levels must keep disjoint key ranges within a level.
+     *
+     * @param files live FileTables from the oldest to the newest: the deepest
+     *              level first ordered by key and level 0 last ordered by generation
+     * @return the compaction or {@code null} if there is nothing to do
+     */
+    @Nullable
+    Compaction select(@NotNull List<FileTable> files);
+
+    /**
+     * Selects the next tables to merge remembering where the previous merges
+     * of the storage stopped, for strategies that pick tables in turn.
+     * A strategy shared by storages and snapshots keeps no state of its own,
+     * so every storage passes its cursors, which only its compaction thread touches.
+     *
+     * @param files   live FileTables as in {@link #select(List)}
+     * @param cursors keys by level the strategy may read and update, empty for a new storage
+     * @return the compaction or {@code null} if there is nothing to do
+     */
+    @Nullable
+    default Compaction select(
+            @NotNull final List<FileTable> files,
+            @NotNull final Map<Integer, ByteBuffer> cursors) {
+        return select(files);
+    }
+}
@@ -0,0 +1,515 @@
+package ru.mail.polis.prohladenn;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.zip.Deflater;
+
+/**
+ * Immutable set of {@link LSMDao} tuning options.
+ */
+public final class Config {
+    // Reads tables whatever level they were written with
+    private static final Codec DEFLATE = new DeflateCodec(Deflater.BEST_SPEED);
+
+    private final long flushThreshold;
+    private final MemoryBudget memoryBudget;
+    private final SyncPolicy syncPolicy;
+    private final long syncIntervalMillis;
+    private final int maxImmutableMemTables;
+    private final CompactionStrategy compactionStrategy;
+    private final long compactionBytesPerSecond;
+    private final int bloomBitsPerKey;
+    private final int blockSize;
+    private final BlockCache blockCache;
+    private final TableCache tableCache;
+    private final Codec codec;
+    private final boolean jmx;
+    private final boolean offHeapMemTables;
+    private final boolean verifyChecksums;
+    private final long scrubBytesPerSecond;
+    private final long scrubIntervalMillis;
+    private final long ingestFileSize;
+    private final long sortChunkSize;
+    private final int sortThreads;
+
+    private Config(@NotNull final Builder builder) {
+        final MemoryBudget budget = builder.memoryBudget;
+        this.flushThreshold = builder.flushThreshold;
+        this.memoryBudget = budget;
+        this.syncPolicy = builder.syncPolicy;
+        this.syncIntervalMillis = builder.syncIntervalMillis;
+        this.maxImmutableMemTables = builder.maxImmutableMemTables;
+        this.compactionStrategy = builder.compactionStrategy;
+        this.compactionBytesPerSecond = builder.compactionBytesPerSecond;
+        this.bloomBitsPerKey = builder.bloomBitsPerKey;
+        this.blockSize = builder.blockSize;
+        if (budget != null) {
+            this.blockCache = budget.getCache();
+        } else if (builder.defaultBlockCache) {
+            this.blockCache = new BlockCache(Runtime.getRuntime().maxMemory() / 16, false);
+        } else {
+            this.blockCache = builder.blockCache;
+        }
+        this.tableCache = new TableCache(builder.maxOpenTables);
+        this.codec = builder.codec;
+        this.jmx = builder.jmx;
+        this.offHeapMemTables = builder.offHeapMemTables;
+        this.verifyChecksums = builder.verifyChecksums;
+        this.scrubBytesPerSecond = builder.scrubBytesPerSecond;
+        this.scrubIntervalMillis = builder.scrubIntervalMillis;
+        this.ingestFileSize = builder.ingestFileSize;
+        this.sortChunkSize = builder.sortChunkSize;
+        this.sortThreads = builder.sortThreads;
+    }
+
+    @NotNull
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the MemTable size after which it is written to disk.
+     * With a {@link MemoryBudget} it depends on the number of storages open with it.
+     */
+    public long getFlushThreshold() {
+        return memoryBudget == null ? flushThreshold : memoryBudget.flushThreshold(maxImmutableMemTables);
+    }
+
+    @Nullable
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    @NotNull
+    public SyncPolicy getSyncPolicy() {
+        return syncPolicy;
+    }
+
+    public long getSyncIntervalMillis() {
+        return syncIntervalMillis;
+    }
+
+    public int getMaxImmutableMemTables() {
+        return maxImmutableMemTables;
+    }
+
+    @NotNull
+    public CompactionStrategy getCompactionStrategy() {
+        return compactionStrategy;
+    }
+
+    /**
+     * Returns the limit of compaction writes or {@code 0} if they are not throttled.
+     */
+    public long getCompactionBytesPerSecond() {
+        return compactionBytesPerSecond;
+    }
+
+    /**
+     * Returns the size of FileTable Bloom filters per key or {@code 0} if they are disabled.
+     */
+    public int getBloomBitsPerKey() {
+        return bloomBitsPerKey;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    @Nullable
+    public BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    /**
+     * Returns the cache of mapped FileTables shared by the storages using this configuration.
+     */
+    @NotNull
+    TableCache getTableCache() {
+        return tableCache;
+    }
+
+    /**
+     * Returns the codec of written blocks or {@code null} if they are not compressed.
+     */
+    @Nullable
+    public Codec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Returns whether {@link Metrics} are registered as an MXBean.
+     */
+    public boolean isJmxEnabled() {
+        return jmx;
+    }
+
+    /**
+     * Returns whether MemTables keep cells in direct buffers instead of the heap.
+     */
+    public boolean isOffHeapMemTables() {
+        return offHeapMemTables;
+    }
+
+    /**
+     * Returns whether lookups and scans check checksums of FileTable blocks.
+     */
+    public boolean isVerifyChecksums() {
+        return verifyChecksums;
+    }
+
+    /**
+     * Returns the rate the scrubber reads FileTables at or {@code 0} if it is disabled.
+     */
+    public long getScrubBytesPerSecond() {
+        return scrubBytesPerSecond;
+    }
+
+    public long getScrubIntervalMillis() {
+        return scrubIntervalMillis;
+    }
+
+    /**
+     * Returns the size after which {@link LSMDao#ingest} starts the next FileTable.
+     */
+    public long getIngestFileSize() {
+        return ingestFileSize;
+    }
+
+    /**
+     * Returns the heap size of records {@link LSMDao#ingestUnsorted} sorts at once.
+     */
+    public long getSortChunkSize() {
+        return sortChunkSize;
+    }
+
+    public int getSortThreads() {
+        return sortThreads;
+    }
+
+    /**
+     * Finds the codec to read blocks with.
+     *
+     * @param id identifier stored in a FileTable
+     * @return the configured codec with the identifier, a built-in one or {@code null}
+     */
+    @Nullable
+    Codec findCodec(final int id) {
+        if (codec != null && codec.getId() == id) {
+            return codec;
+        }
+        if (id == DeflateCodec.ID) {
+            return DEFLATE;
+        }
+        return null;
+    }
+
+    public static final class Builder {
+        private long flushThreshold = 2 * 1024 * 1024;
+        private SyncPolicy syncPolicy = SyncPolicy.PERIODIC;
+        private long syncIntervalMillis = 100L;
+        private int maxImmutableMemTables = 2;
+        private CompactionStrategy compactionStrategy = new SizeTieredStrategy(4, 32, 1.5);
+        private long compactionBytesPerSecond;
+        private int bloomBitsPerKey = 10;
+        private int blockSize = 4 * 1024;
+        private BlockCache blockCache;
+        private boolean defaultBlockCache = true;
+        private Codec codec;
+        private boolean jmx;
+        private MemoryBudget memoryBudget;
+        private boolean offHeapMemTables;
+        private int maxOpenTables = 1024;
+        private boolean verifyChecksums = true;
+        private long scrubBytesPerSecond;
+        private long scrubIntervalMillis = 60 * 60 * 1000L;
+        private long ingestFileSize = 64 * 1024 * 1024;
+        private long sortChunkSize = Runtime.getRuntime().maxMemory() / 16;
+        private int sortThreads = Math.min(Runtime.getRuntime().availableProcessors(), 4);
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the MemTable size after which it is written to disk.
+         *
+         * @param flushThreshold threshold in bytes
+         * @return this builder
+         */
+        @NotNull
+        public Builder flushThreshold(final long flushThreshold) {
+            if (flushThreshold < 0L) {
+                throw new IllegalArgumentException("Negative flush threshold: " + flushThreshold);
+            }
+            this.flushThreshold = flushThreshold;
+            return this;
+        }
+
+        /**
+         * Sets how the commit log is synced to disk.
+         *
+         * @param syncPolicy     durability of acknowledged writes
+         * @param intervalMillis period of {@link SyncPolicy#PERIODIC} syncs
+         * @return this builder
+         */
+        @NotNull
+        public Builder sync(
+                @NotNull final SyncPolicy syncPolicy,
+                final long intervalMillis) {
+            if (intervalMillis <= 0L) {
+                throw new IllegalArgumentException("Non-positive sync interval: " + intervalMillis);
+            }
+            this.syncPolicy = syncPolicy;
+            this.syncIntervalMillis = intervalMillis;
+            return this;
+        }
+
+        /**
+         * Sets how many frozen MemTables may wait for the background flush
+         * before writers are blocked.
+         *
+         * @param maxImmutableMemTables limit of frozen MemTables
+         * @return this builder
+         */
+        @NotNull
+        public Builder maxImmutableMemTables(final int maxImmutableMemTables) {
+            if (maxImmutableMemTables <= 0) {
+                throw new IllegalArgumentException("Non-positive MemTable limit: " + maxImmutableMemTables);
+            }
+            this.maxImmutableMemTables = maxImmutableMemTables;
+            return this;
+        }
+
+        /**
+         * Sets the policy of the background compaction.
+         *
+         * @param compactionStrategy chooses FileTables to merge
+         * @return this builder
+         */
+        @NotNull
+        public Builder compactionStrategy(@NotNull final CompactionStrategy compactionStrategy) {
+            this.compactionStrategy = compactionStrategy;
+            return this;
+        }
+
+        /**
+         * Limits the rate the background compaction writes at.
+         *
+         * @param bytesPerSecond limit of written bytes or {@code 0} to disable throttling
+         * @return this builder
+         */
+        @NotNull
+        public Builder compactionBytesPerSecond(final long bytesPerSecond) {
+            if (bytesPerSecond < 0L) {
+                throw new IllegalArgumentException("Negative compaction rate: " + bytesPerSecond);
+            }
+            this.compactionBytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * Sets the size of the Bloom filter written with every FileTable.
+         *
+         * @param bitsPerKey filter bits per key or {@code 0} to disable filters
+         * @return this builder
+         */
+        @NotNull
+        public Builder bloomBitsPerKey(final int bitsPerKey) {
+            if (bitsPerKey < 0 || bitsPerKey > 64) {
+                throw new IllegalArgumentException("Bloom filter bits per key out of [0, 64]: " + bitsPerKey);
+            }
+            this.bloomBitsPerKey = bitsPerKey;
+            return this;
+        }
+
+        /**
+         * Sets the size of FileTable blocks, the unit of disk reads.
+         * A block holds at least one cell, so large cells make larger blocks.
+         *
+         * @param blockSize block size in bytes
+         * @return this builder
+         */
+        @NotNull
+        public Builder blockSize(final int blockSize) {
+            if (blockSize < 256 || blockSize > 64 * 1024 * 1024) {
+                throw new IllegalArgumentException("Block size out of [256 B, 64 MB]: " + blockSize);
+            }
+            this.blockSize = blockSize;
+            return this;
+        }
+
+        /**
+         * Sets the cache of FileTable blocks, which may be shared by several storages.
+         * By default every configuration gets an on-heap cache of 1/16 of the heap.
+         *
+         * @param blockCache the cache or {@code null} to read blocks from the mapped files
+         * @return this builder
+         */
+        @NotNull
+        public Builder blockCache(@Nullable final BlockCache blockCache) {
+            this.blockCache = blockCache;
+            this.defaultBlockCache = false;
+            return this;
+        }
+
+        /**
+         * Sets the compression of FileTable blocks, which are written uncompressed by default.
+         * Tables written with another codec stay readable if it is built in.
+         *
+         * @param codec the codec or {@code null} to disable compression
+         * @return this builder
+         */
+        @NotNull
+        public Builder compression(@Nullable final Codec codec) {
+            if (codec != null && (codec.getId() <= 0 || codec.getId() > Byte.MAX_VALUE)) {
+                throw new IllegalArgumentException("Codec identifier out of [1, 127]: " + codec.getId());
+            }
+            this.codec = codec;
+            return this;
+        }
+
+        /**
+         * Sizes the flush threshold and the block cache from the budget
+         * instead of {@link #flushThreshold(long)} and {@link #blockCache(BlockCache)}.
+         * Storages configured with the same budget share its block cache and MemTable share.
+         *
+         * @param memoryBudget the budget or {@code null} to use the set values
+         * @return this builder
+         */
+        @NotNull
+        public Builder memoryBudget(@Nullable final MemoryBudget memoryBudget) {
+            this.memoryBudget = memoryBudget;
+            return this;
+        }
+
+        /**
+         * Sets whether {@link Metrics} of the storage are registered in the platform
+         * MBean server while it is open. They are always available from {@link LSMDao#getMetrics()}.
+         *
+         * @param enabled whether to register the MXBean
+         * @return this builder
+         */
+        @NotNull
+        public Builder jmx(final boolean enabled) {
+            this.jmx = enabled;
+            return this;
+        }
+
+        /**
+         * Sets whether MemTables copy cells into direct buffers, so large ones don't
+         * add to GC work. They are still flushed at {@link #flushThreshold(long)} or
+         * the MemTable share of the {@link #memoryBudget(MemoryBudget)}, counting
+         * the allocated chunks. The buffers are not freed on flush: records read from
+         * a MemTable are views of them, so they are released by GC once the flushed
+         * MemTable and every record read from it are unreachable. Until then they count
+         * towards {@code -XX:MaxDirectMemorySize}, which is the maximum heap size unless set.
+         *
+         * @param enabled whether to keep MemTables off the heap
+         * @return this builder
+         */
+        @NotNull
+        public Builder offHeapMemTables(final boolean enabled) {
+            this.offHeapMemTables = enabled;
+            return this;
+        }
+
+        /**
+         * Sets how many FileTables are kept mapped. Tables are mapped on the first
+         * access and the least recently read ones are dropped beyond the limit.
+         *
+         * @param maxOpenTables limit of mapped tables
+         * @return this builder
+         */
+        @NotNull
+        public Builder maxOpenTables(final int maxOpenTables) {
+            if (maxOpenTables <= 0) {
+                throw new IllegalArgumentException("Non-positive table limit: " + maxOpenTables);
+            }
+            this.maxOpenTables = maxOpenTables;
+            return this;
+        }
+
+        /**
+         * Sets whether lookups and scans check checksums of FileTable blocks
+         * not in the block cache. Compaction checks them anyway.
+         *
+         * @param enabled whether to verify blocks on read
+         * @return this builder
+         */
+        @NotNull
+        public Builder verifyChecksums(final boolean enabled) {
+            this.verifyChecksums = enabled;
+            return this;
+        }
+
+        /**
+         * Enables the background scrubber, which verifies checksums of all FileTables
+         * and reports mismatches in {@link Metrics#getCorruptions()}.
+         *
+         * @param bytesPerSecond limit of read bytes or {@code 0} to disable the scrubber
+         * @param intervalMillis pause between verifications of all tables
+         * @return this builder
+         */
+        @NotNull
+        public Builder scrub(
+                final long bytesPerSecond,
+                final long intervalMillis) {
+            if (bytesPerSecond < 0L) {
+                throw new IllegalArgumentException("Negative scrub rate: " + bytesPerSecond);
+            }
+            if (intervalMillis <= 0L) {
+                throw new IllegalArgumentException("Non-positive scrub interval: " + intervalMillis);
+            }
+            this.scrubBytesPerSecond = bytesPerSecond;
+            this.scrubIntervalMillis = intervalMillis;
+            return this;
+        }
+
+        /**
+         * Sets the size of FileTables written by {@link LSMDao#ingest}.
+         * Larger tables mean fewer files, while the writer keeps a hash of every key
+         * of the table on the heap until it is finished.
+         *
+         * @param fileSize size in bytes after which the next table is started
+         * @return this builder
+         */
+        @NotNull
+        public Builder ingestFileSize(final long fileSize) {
+            if (fileSize <= 0L) {
+                throw new IllegalArgumentException("Non-positive file size: " + fileSize);
+            }
+            this.ingestFileSize = fileSize;
+            return this;
+        }
+
+        /**
+         * Sets how {@link LSMDao#ingestUnsorted} sorts records in chunks.
+         * Besides the chunk being read, a chunk per thread may wait to be sorted
+         * and spilled, so up to {@code (threads + 1) * chunkSize} bytes of the heap are taken.
+         *
+         * @param chunkSize heap size of records sorted at once, including object headers
+         * @param threads   number of threads sorting and spilling chunks
+         * @return this builder
+         */
+        @NotNull
+        public Builder sort(
+                final long chunkSize,
+                final int threads) {
+            if (chunkSize <= 0L) {
+                throw new IllegalArgumentException("Non-positive chunk size: " + chunkSize);
+            }
+            if (threads <= 0) {
+                throw new IllegalArgumentException("Non-positive thread count: " + threads);
+            }
+            this.sortChunkSize = chunkSize;
+            this.sortThreads = threads;
+            return this;
+        }
+
+        @NotNull
+        public Config build() {
+            return new Config(this);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package ru.mail.polis.prohladenn;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Signals that stored data doesn't match its checksum.
+ */
+public final class CorruptionException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public CorruptionException(@NotNull final String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,80 @@
+package ru.mail.polis.prohladenn;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate of the JDK, always available for reading.
+ *
+ * <p>Deflaters and inflaters hold native memory, so every thread reuses its own.
+ */
+public final class DeflateCodec implements Codec {
+    public static final int ID = 1;
+
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+    /**
+     * Creates the codec.
+     *
+     * @param level compression level from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}
+     */
+    public DeflateCodec(final int level) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level));
+    }
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer compress(@NotNull final ByteBuffer raw) {
+        final Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(raw.duplicate());
+        deflater.finish();
+        ByteBuffer result = ByteBuffer.allocate(raw.remaining() / 2 + 64);
+        while (!deflater.finished()) {
+            if (!result.hasRemaining()) {
+                final ByteBuffer grown = ByteBuffer.allocate(result.capacity() * 2);
+                result.flip();
+                grown.put(result);
+                result = grown;
+            }
+            deflater.deflate(result);
+        }
+        result.flip();
+        return result;
+    }
+
+    @Override
+    public void decompress(
+            @NotNull final ByteBuffer compressed,
+            @NotNull final ByteBuffer raw) throws IOException {
+        final Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(compressed.duplicate());
+        try {
+            while (raw.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(raw) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted block", e);
+        }
+        if (raw.hasRemaining() || !inflater.finished()) {
+            throw new IOException("Block size mismatch");
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package ru.mail.polis.prohladenn;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.Record;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Sorts records which may not fit in the heap for {@link LSMDao#ingestUnsorted}.
+ *
+ * <p>Records are read in chunks of {@link Config#getSortChunkSize()} bytes, which
+ * a pool of threads sorts and spills to temporary FileTables while the next chunk
+ * is read. The spilled tables are merged the way FileTables of a storage are.
+ * Cells are timestamped with the positions of their records, so the last record
+ * of a key wins. Input fitting in a single chunk is sorted in memory.
+ *
+ * <p>Spills are named like temporary files of the storage, so the ones a crash
+ * leaves behind are removed on startup, and {@link #close()} removes the rest.
+ */
+final class ExternalSorter implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(ExternalSorter.class);
+
+    private final File base;
+    private final Config config;
+    private final IntSupplier fileIds;
+    private final Collection<Path> spills = new ArrayList<>();
+
+    /**
+     * Creates a sorter spilling to the folder.
+     *
+     * @param base    folder of the storage
+     * @param config  chunk size, number of threads and format of spills
+     * @param fileIds unique numbers spills are named after
+     */
+    ExternalSorter(
+            @NotNull final File base,
+            @NotNull final Config config,
+            @NotNull final IntSupplier fileIds) {
+        this.base = base;
+        this.config = config;
+        this.fileIds = fileIds;
+    }
+
+    /**
+     * Reads and sorts the records.
+     *
+     * @param records records in any order
+     * @return cells of distinct keys in ascending order, readable until the sorter is closed
+     * @throws IOException if an I/O error occurred
+     */
+    @NotNull
+    Iterator<Cell> sort(@NotNull final Iterator<Record> records) throws IOException {
+        final int threads = config.getSortThreads();
+        final ExecutorService sorters = Executors.newFixedThreadPool(
+                threads,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("sorter-%d")
+                        .setDaemon(true)
+                        .build());
+
+        // Chunks waiting for a thread hold the permits
+        final Semaphore permits = new Semaphore(threads);
+        final List<Future<FileTable>> spilled = new ArrayList<>();
+        boolean done = false;
+        try {
+            final long chunkSize = config.getSortChunkSize();
+            List<Cell> chunk = new ArrayList<>();
+            long bytes = 0L;
+            long position = 0L;
+            while (records.hasNext()) {
+                if (bytes >= chunkSize) {
+                    acquire(permits);
+                    final List<Cell> full = chunk;
+                    spilled.add(sorters.submit(() -> {
+                        try {
+                            return spill(full);
+                        } finally {
+                            permits.release();
+                        }
+                    }));
+                    chunk = new ArrayList<>(full.size());
+                    bytes = 0L;
+                    check(spilled);
+                }
+                final Record record = records.next();
+                final Value value = new Value(position++, record.getValue());
+                chunk.add(new Cell(record.getKey(), value));
+
+                // A cell and its slot in the list take about as much as a skip list node
+                bytes += HeapMemTable.sizeOf(record.getKey(), value);
+            }
+            chunk.sort(Cell.COMPARATOR);
+            if (spilled.isEmpty()) {
+                done = true;
+                return Cell.merge(List.of(chunk.iterator()));
+            }
+
+            // The last chunk is merged from memory
+            final List<Iterator<Cell>> iterators = new ArrayList<>(spilled.size() + 1);
+            long spilledBytes = 0L;
+            for (final Future<FileTable> future : spilled) {
+                final FileTable table = get(future);
+                iterators.add(table.scan());
+                spilledBytes += table.sizeInBytes();
+            }
+            iterators.add(chunk.iterator());
+            log.info("Merging {} records from {} bytes of {} spills", position, spilledBytes, spilled.size());
+            done = true;
+            return Cell.merge(iterators);
+        } finally {
+            if (done) {
+                sorters.shutdown();
+            } else {
+                // Spills are registered before they are written, so all of them are removed on close
+                sorters.shutdownNow();
+                try {
+                    if (!sorters.awaitTermination(1, TimeUnit.MINUTES)) {
+                        log.warn("Sorters didn't stop in time");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    @NotNull
+    private FileTable spill(@NotNull final List<Cell> chunk) throws IOException {
+        chunk.sort(Cell.COMPARATOR);
+        final int fileId = fileIds.getAsInt();
+        final File file = new File(base, LSMDao.tempFileName(fileId));
+        synchronized (spills) {
+            spills.add(file.toPath());
+        }
+        return FileTable.create(Cell.merge(List.of(chunk.iterator())), file, fileId, 0, fileId, config);
+    }
+
+    private static void acquire(@NotNull final Semaphore permits) throws InterruptedIOException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for sort");
+        }
+    }
+
+    /**
+     * Fails as soon as a chunk fails rather than after the whole input is read.
+     */
+    private static void check(@NotNull final List<Future<FileTable>> spilled) throws IOException {
+        for (final Future<FileTable> future : spilled) {
+            if (future.isDone()) {
+                get(future);
+            }
+        }
+    }
+
+    @NotNull
+    private static FileTable get(@NotNull final Future<FileTable> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for sort");
+        } catch (ExecutionException e) {
+            throw new IOException("Can't spill", e.getCause());
+        }
+    }
+
+    /**
+     * Removes the spills, after which cells returned by {@link #sort} can't be read.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (spills) {
+            for (final Path spill : spills) {
+                Files.deleteIfExists(spill);
+            }
+            spills.clear();
+        }
+    }
+}
@@ -1,154 +1,616 @@
 package ru.mail.polis.prohladenn;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.IntBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
-import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.IntConsumer;
+import java.util.zip.CRC32C;
 
+/**
+ * Immutable sorted table on disk.
+ *
+ * <p>The file consists of data blocks, a Bloom filter of the keys, a sparse
+ * index and a fixed size footer. A block holds cells
+ * {@code [int keySize][key][long timestamp][int valueSize][value]}, where a
+ * negative timestamp marks a tombstone without a value, followed by int
+ * offsets of the cells and their count. The index holds the block count,
+ * {@code [int keySize][first key][long offset][int size][int crc32c]} of every
+ * block and the last key of the table. The footer is
+ * {@code [long bloomOffset][int bloomHashes][long indexOffset][long rows][int codec]
+ * [int bloomCrc32c][int indexCrc32c][int version][long magic]}.
+ *
+ * <p>Blocks of a table with a {@link Codec} start with a byte of the codec
+ * identifier, or {@code 0} for a block stored as is, and the int size of the
+ * uncompressed block.
+ *
+ * <p>Tables of the original format, a single block without a footer, are
+ * rewritten in this format when a storage without a {@link Manifest} is opened.
+ *
+ * <p>The Bloom filter and the index are verified when read. A block is verified
+ * before it is decoded, unless {@link Config#isVerifyChecksums()} is off for
+ * lookups and scans, while compaction always verifies what it merges.
+ *
+ * <p>A table listed in the {@link Manifest} is opened without reading the file,
+ * its footer and Bloom filter are read on the first access. The file is mapped on the first access and stays mapped while the
+ * {@link TableCache} keeps it. Only the block offsets are kept on heap and
+ * the keys of the index stay mapped, so a lookup reads the index and a single
+ * block. Blocks are read through the {@link BlockCache} if there is one,
+ * except by compaction, and the cache holds them uncompressed.
+ */
 public final class FileTable implements Table {
-    private final int rows;
-    private final IntBuffer offsets;
-    private final ByteBuffer cells;
-    private final long sizeInBytes;
+    private static final Logger log = LoggerFactory.getLogger(FileTable.class);
+
+    static final int VERSION = 4;
+    static final long MAGIC = 0x4C534D5461626C65L;
+    static final int FOOTER_SIZE = Long.BYTES * 4 + Integer.BYTES * 5;
+    static final int MAX_BLOCK_SIZE = 1 << 30;
+    static final byte RAW_BLOCK = 0;
+    static final int BLOCK_HEADER_SIZE = Byte.BYTES + Integer.BYTES;
+
+    // Bytes verified at once by the scrubber, the unit of its throttling
+    private static final int SCRUB_CHUNK = 64 * 1024;
+
+    // Windows of twice the block limit starting every block limit bytes
+    // hold any block entirely while a single mapping is limited to 2 GB
+    private static final int WINDOW_SHIFT = 30;
+
+    private final Manifest.Entry entry;
     private final Path path;
+    private final Config config;
+    private final BlockCache cache;
+    private final TableCache tables;
+    private final boolean verifyChecksums;
+    private final long id = BlockCache.nextTableId();
 
-    FileTable(final File file) throws IOException {
-        this.sizeInBytes = file.length();
+    // Read on the first access
+    private volatile Header header;
+
+    // Set by the TableCache
+    private volatile Mapping mapping;
+    private volatile boolean referenced;
+
+    /**
+     * Opens the table described by the {@link Manifest} without reading the file.
+     * Its footer and Bloom filter are read on the first access, while the file
+     * is mapped through the {@link TableCache}.
+     */
+    FileTable(
+            @NotNull final File file,
+            @NotNull final Manifest.Entry entry,
+            @NotNull final Config config) {
+        this.entry = entry;
         this.path = file.toPath();
-        assert sizeInBytes != 0 && sizeInBytes <= Integer.MAX_VALUE;
-        final ByteBuffer mapped;
+        this.config = config;
+        this.cache = config.getBlockCache();
+        this.tables = config.getTableCache();
+        this.verifyChecksums = config.isVerifyChecksums();
+    }
+
+    /**
+     * Opens the table of a storage without a {@link Manifest}
+     * reading its footer, Bloom filter and key range.
+     *
+     * @param file       the table
+     * @param generation generation of the table
+     * @param level      level of the table
+     * @param config     options the table is read with
+     * @return the table
+     * @throws IOException if an I/O error occurred
+     */
+    @NotNull
+    static FileTable open(
+            @NotNull final File file,
+            final int generation,
+            final int level,
+            @NotNull final Config config) throws IOException {
+        if (isOriginal(file)) {
+            upgrade(file, generation, config);
+        }
+        final long size = file.length();
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final Header header = Header.read(fc, size, file.toPath(), config);
+
+            // Only the first and the last keys of the index are kept, which may be
+            // all of it for huge keys, so the rest is skipped while streaming
+            final DataInputStream index = new DataInputStream(
+                    new BufferedInputStream(Channels.newInputStream(fc.position(header.indexOffset))));
+            final int blockInfoSize = Long.BYTES + Integer.BYTES * 2;
+            final int blocks = index.readInt();
+            final ByteBuffer minKey = readKey(index);
+            skip(index, blockInfoSize);
+            for (int i = 1; i < blocks; i++) {
+                skip(index, index.readInt() + blockInfoSize);
+            }
+            final ByteBuffer maxKey = readKey(index);
+
+            final Manifest.Entry entry =
+                    new Manifest.Entry(generation, level, generation, size, Manifest.NO_CHECKSUM, minKey, maxKey);
+            final FileTable table = new FileTable(file, entry, config);
+            table.header = header;
+            return table;
+        }
+    }
+
+    /**
+     * Checks whether the table is of the original format, which has no footer.
+     */
+    private static boolean isOriginal(@NotNull final File file) throws IOException {
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = fc.size();
+            return size < Long.BYTES || read(fc, size - Long.BYTES, Long.BYTES).getLong() != MAGIC;
+        }
+    }
+
+    /**
+     * Rewrites a table of the original format, cells followed by their offsets and count,
+     * which is laid out as a single uncompressed block. The new file replaces the old one
+     * atomically, so a crash leaves either of them.
+     */
+    private static void upgrade(
+            @NotNull final File file,
+            final int generation,
+            @NotNull final Config config) throws IOException {
+        final ByteBuffer block;
         try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
-            mapped = fc.map(FileChannel.MapMode.READ_ONLY, 0L, fc.size()).order(ByteOrder.BIG_ENDIAN);
+            if (fc.size() < Integer.BYTES || fc.size() > Integer.MAX_VALUE) {
+                throw new IOException("Unsupported format of FileTable " + file);
+            }
+            block = fc.map(FileChannel.MapMode.READ_ONLY, 0L, fc.size()).order(ByteOrder.BIG_ENDIAN);
+        }
+        final int count = count(block);
+        if (count <= 0 || Integer.BYTES * (count + 1L) > block.limit()) {
+            throw new IOException("Unsupported format of FileTable " + file);
+        }
+        final Iterator<Cell> cells = new Iterator<>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < count;
+            }
+
+            @Override
+            public Cell next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final int offset = offsetAt(block, count, next++);
+                return new Cell(keyAt(block, offset), valueAt(block, offset));
+            }
+        };
+        final Path temp = new File(file.getParentFile(), LSMDao.tempFileName(generation)).toPath();
+        Files.deleteIfExists(temp);
+        writeTo(cells, temp.toFile(), config);
+        Files.move(temp, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        log.info("Upgraded {} of {} cells", file, count);
+    }
+
+    @NotNull
+    private static ByteBuffer readKey(@NotNull final DataInputStream index) throws IOException {
+        final byte[] key = new byte[index.readInt()];
+        index.readFully(key);
+        return ByteBuffer.wrap(key);
+    }
+
+    private static void skip(
+            @NotNull final DataInputStream in,
+            final int bytes) throws IOException {
+        int left = bytes;
+        while (left > 0) {
+            final int skipped = in.skipBytes(left);
+            if (skipped == 0) {
+                throw new EOFException("Unexpected end of FileTable index");
+            }
+            left -= skipped;
+        }
+    }
+
+    @NotNull
+    private static ByteBuffer read(
+            @NotNull final FileChannel fc,
+            final long offset,
+            final int size) throws IOException {
+        final ByteBuffer result = ByteBuffer.allocate(size);
+        while (result.hasRemaining()) {
+            if (fc.read(result, offset + result.position()) < 0) {
+                throw new IOException("Unexpected end of FileTable at " + (offset + result.position()));
+            }
+        }
+        result.flip();
+        return result;
+    }
+
+    /**
+     * Returns the footer and the Bloom filter reading them if it's the first access.
+     */
+    @NotNull
+    private Header header() throws IOException {
+        Header current = header;
+        if (current == null) {
+            synchronized (this) {
+                current = header;
+                if (current == null) {
+                    try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+                        if (fc.size() != entry.size) {
+                            throw new IOException("FileTable " + path + " has " + fc.size()
+                                    + " bytes instead of " + entry.size);
+                        }
+                        current = Header.read(fc, entry.size, path, config);
+                    }
+                    header = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    @NotNull
+    private static ByteBuffer readKey(@NotNull final ByteBuffer index) {
+        final int size = index.getInt();
+        final ByteBuffer key = index.duplicate();
+        key.limit(key.position() + size);
+        index.position(key.limit());
+        return key.slice();
+    }
+
+    /**
+     * Maps the file and reads the index of its blocks.
+     * Called by the {@link TableCache}, which keeps the result.
+     */
+    @NotNull
+    Mapping map() throws IOException {
+        final Header current = header();
+        final long sizeInBytes = entry.size;
+        final ByteBuffer[] windows;
+        try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+            final int count = (int) ((sizeInBytes + (1L << WINDOW_SHIFT) - 1) >>> WINDOW_SHIFT);
+            windows = new ByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                final long from = (long) i << WINDOW_SHIFT;
+                final long size = Math.min(Integer.MAX_VALUE, sizeInBytes - from);
+                windows[i] = fc.map(FileChannel.MapMode.READ_ONLY, from, size).order(ByteOrder.BIG_ENDIAN);
+            }
+        }
+
+        // Index
+        final ByteBuffer index = region(windows, current.indexOffset, current.indexSize);
+        if (!matches(index, current.indexChecksum)) {
+            throw new CorruptionException("Checksum mismatch of the index of " + path);
+        }
+        final int blocks = index.getInt();
+        final ByteBuffer[] firstKeys = new ByteBuffer[blocks];
+        final long[] blockOffsets = new long[blocks];
+        final int[] blockSizes = new int[blocks];
+        final int[] blockChecksums = new int[blocks];
+        for (int i = 0; i < blocks; i++) {
+            firstKeys[i] = readKey(index);
+            blockOffsets[i] = index.getLong();
+            blockSizes[i] = index.getInt();
+            blockChecksums[i] = index.getInt();
+        }
+        return new Mapping(windows, firstKeys, blockOffsets, blockSizes, blockChecksums);
+    }
+
+    /**
+     * Checks the CRC32C of a region of the file.
+     *
+     * @param region   the region, whose position is kept
+     * @param checksum the expected CRC32C
+     * @return whether the checksum matches
+     */
+    private static boolean matches(
+            @NotNull final ByteBuffer region,
+            final int checksum) {
+        final CRC32C crc = new CRC32C();
+        crc.update(region.duplicate());
+        return (int) crc.getValue() == checksum;
+    }
+
+    /**
+     * Returns the mapping of the file, mapping it if it isn't.
+     *
+     * @param cached whether to keep a new mapping in the {@link TableCache},
+     *               scans of compaction don't push out the tables being read
+     */
+    @NotNull
+    private Mapping mapping(final boolean cached) throws IOException {
+        final Mapping current = mapping;
+        if (current != null) {
+            if (!referenced) {
+                referenced = true;
+            }
+            return current;
+        }
+        return cached ? tables.load(this) : map();
+    }
+
+    @Nullable
+    Mapping cachedMapping() {
+        return mapping;
+    }
+
+    void setMapping(@Nullable final Mapping mapping) {
+        this.mapping = mapping;
+        this.referenced = mapping != null;
+    }
+
+    /**
+     * Clears the reference mark of the table.
+     *
+     * @return whether the table was read since the previous call
+     */
+    boolean clearReferenced() {
+        if (referenced) {
+            referenced = false;
+            return true;
         }
+        return false;
+    }
 
-        // Rows
-        rows = mapped.getInt((int) (sizeInBytes - Integer.BYTES));
+    /**
+     * Removes the table from the {@link TableCache} once it is no longer read.
+     */
+    void evict() {
+        tables.remove(this);
+    }
 
-        // Offset
-        final ByteBuffer offsetBuffer = mapped.duplicate();
-        offsetBuffer.position(mapped.limit() - Integer.BYTES * rows - Integer.BYTES);
-        offsetBuffer.limit(mapped.limit() - Integer.BYTES);
-        this.offsets = offsetBuffer.slice().asIntBuffer();
+    /**
+     * Pins the mapping of the table before its file is deleted.
+     *
+     * @throws IOException if an I/O error occurred
+     */
+    void retire() throws IOException {
+        tables.retire(this);
+    }
 
-        // Cells
-        final ByteBuffer cellBuffer = mapped.duplicate();
-        cellBuffer.limit(offsetBuffer.position());
-        this.cells = cellBuffer.slice();
+    /**
+     * Returns a read-only view of the file region.
+     */
+    @NotNull
+    private static ByteBuffer region(
+            @NotNull final ByteBuffer[] windows,
+            final long offset,
+            final int size) {
+        final ByteBuffer result = windows[(int) (offset >>> WINDOW_SHIFT)].duplicate();
+        final int position = (int) (offset & ((1L << WINDOW_SHIFT) - 1));
+        result.position(position);
+        result.limit(position + size);
+        return result.slice();
     }
 
     @Override
     public long sizeInBytes() {
-        return sizeInBytes;
+        return entry.size;
     }
 
     /**
      * Writes MemTable data to disk.
      *
-     * @param cells iterator of MemTable
-     * @param to    path of the file where data needs to be written
+     * @param cells  iterator of MemTable
+     * @param to     path of the file where data needs to be written
+     * @param config block size, Bloom filter and compression options
+     * @return size of the written file in bytes
      * @throws IOException if an I/O error occurred
      */
-    static void write(final Iterator<Cell> cells, final File to) throws IOException {
+    static long write(
+            final Iterator<Cell> cells,
+            final File to,
+            @NotNull final Config config) throws IOException {
+        return writeTo(cells, to, config).getSize();
+    }
+
+    /**
+     * Writes the cells and opens the resulting table.
+     * The file is forced to disk, so that it may be added to the {@link Manifest}.
+     *
+     * @param cells      sorted cells, at least one
+     * @param to         file to create
+     * @param generation generation of the table
+     * @param level      level of the table
+     * @param fileId     unique number the file is named after
+     * @param config     block size, Bloom filter and compression options
+     * @return the table
+     * @throws IOException if an I/O error occurred
+     */
+    @NotNull
+    static FileTable create(
+            @NotNull final Iterator<Cell> cells,
+            @NotNull final File to,
+            final int generation,
+            final int level,
+            final int fileId,
+            @NotNull final Config config) throws IOException {
+        final FileTableWriter writer = writeTo(cells, to, config);
+        final Manifest.Entry entry = new Manifest.Entry(
+                generation,
+                level,
+                fileId,
+                writer.getSize(),
+                writer.getChecksum(),
+                writer.getMinKey(),
+                writer.getMaxKey());
+        return new FileTable(to, entry, config);
+    }
+
+    /**
+     * Writes and forces the cells returning the finished writer, which describes the file.
+     */
+    @NotNull
+    private static FileTableWriter writeTo(
+            @NotNull final Iterator<Cell> cells,
+            @NotNull final File to,
+            @NotNull final Config config) throws IOException {
         try (FileChannel fc = FileChannel.open(to.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
-            final List<Integer> offsets = new ArrayList<>();
-            int offset = 0;
+            final FileTableWriter writer = new FileTableWriter(
+                    fc,
+                    config.getBlockSize(),
+                    config.getBloomBitsPerKey(),
+                    config.getCodec());
             while (cells.hasNext()) {
-                offsets.add(offset);
+                writer.add(cells.next());
+            }
+            writer.finish();
+            fc.force(true);
+            return writer;
+        }
+    }
 
-                final Cell cell = cells.next();
+    /**
+     * Checks the Bloom filter of the table.
+     *
+     * @param key key to look for
+     * @return {@code false} if the table definitely doesn't contain the key
+     * @throws IOException if an I/O error occurred
+     */
+    public boolean mightContain(@NotNull final ByteBuffer key) throws IOException {
+        return header().bloomFilter.mightContain(key);
+    }
 
-                // Key
-                final ByteBuffer key = cell.getKey();
-                final int keySize = cell.getKey().remaining();
-                fc.write(Bytes.fromInt(keySize));
-                offset += Integer.BYTES;
-                fc.write(key);
-                offset += keySize;
+    /**
+     * Returns the block reading it through the {@link BlockCache},
+     * which holds verified blocks only, unless it's a compaction scan.
+     */
+    @NotNull
+    private ByteBuffer block(
+            @NotNull final Mapping mapping,
+            final int i,
+            final boolean cached) throws IOException {
+        if (!cached) {
+            return read(mapping, i, true);
+        }
+        if (cache == null) {
+            return read(mapping, i, verifyChecksums);
+        }
+        final ByteBuffer block = cache.get(id, mapping.blockOffsets[i]);
+        if (block != null) {
+            return block;
+        }
+        // Decompressed blocks are private heap buffers, mapped ones are copied
+        final ByteBuffer read = read(mapping, i, verifyChecksums);
+        return cache.put(id, mapping.blockOffsets[i], read, !read.isDirect());
+    }
 
-                // Value
-                final Value value = cell.getValue();
+    /**
+     * Reads the block decompressing it if needed.
+     *
+     * @param verify whether to check the checksum of the block
+     */
+    @NotNull
+    private ByteBuffer read(
+            @NotNull final Mapping mapping,
+            final int i,
+            final boolean verify) throws IOException {
+        final ByteBuffer stored = region(mapping.windows, mapping.blockOffsets[i], mapping.blockSizes[i]);
+        if (verify && !matches(stored, mapping.blockChecksums[i])) {
+            throw new CorruptionException("Checksum mismatch of block " + i + " of " + path);
+        }
+        final Codec codec = header().codec;
+        if (codec == null) {
+            return stored;
+        }
+        final byte type = stored.get(0);
+        final int rawSize = stored.getInt(Byte.BYTES);
+        stored.position(BLOCK_HEADER_SIZE);
+        final ByteBuffer payload = stored.slice();
+        if (type == RAW_BLOCK) {
+            return payload;
+        }
+        if (type != codec.getId()) {
+            throw new IOException("Unexpected codec " + type + " of block " + i + " in " + path);
+        }
+        final ByteBuffer raw = ByteBuffer.allocate(rawSize);
+        codec.decompress(payload, raw);
+        raw.flip();
+        return raw;
+    }
 
-                // Timestamp
-                if (value.isRemoved()) {
-                    fc.write(Bytes.fromLong(-cell.getValue().getTimeStamp()));
-                } else {
-                    fc.write(Bytes.fromLong(cell.getValue().getTimeStamp()));
-                }
-                offset += Long.BYTES;
-
-                // Value
-                if (!value.isRemoved()) {
-                    final ByteBuffer valueData = value.getData();
-                    final int valueSize = value.getData().remaining();
-                    fc.write(Bytes.fromInt(valueSize));
-                    offset += Integer.BYTES;
-                    fc.write(valueData);
-                    offset += valueSize;
-                }
-            }
+    private static int count(@NotNull final ByteBuffer block) {
+        return block.getInt(block.limit() - Integer.BYTES);
+    }
 
-            // Offsets
-            for (final Integer anOffset : offsets) {
-                fc.write(Bytes.fromInt(anOffset));
-            }
+    private static int offsetAt(
+            @NotNull final ByteBuffer block,
+            final int count,
+            final int i) {
+        return block.getInt(block.limit() - Integer.BYTES * (count + 1 - i));
+    }
 
-            // Cells
-            fc.write(Bytes.fromInt(offsets.size()));
-        }
+    /**
+     * Compares the key of the cell with the given one in place.
+     *
+     * @return the sign of {@code keyAt(i).compareTo(key)}
+     */
+    private static int compareKeyAt(
+            @NotNull final ByteBuffer block,
+            final int offset,
+            @NotNull final ByteBuffer key) {
+        return Bytes.compare(
+                block, offset + Integer.BYTES, block.getInt(offset),
+                key, key.position(), key.remaining());
     }
 
-    private ByteBuffer keyAt(final int i) {
-        assert 0 <= i && i < rows;
-        final int offset = offsets.get(i);
-        final int keySize = cells.getInt(offset);
-        final ByteBuffer key = cells.duplicate();
+    @NotNull
+    private static ByteBuffer keyAt(
+            @NotNull final ByteBuffer block,
+            final int offset) {
+        final ByteBuffer key = block.duplicate();
         key.position(offset + Integer.BYTES);
-        key.limit(key.position() + keySize);
+        key.limit(key.position() + block.getInt(offset));
         return key.slice();
     }
 
-    private Cell cellAt(final int i) {
-        assert 0 <= i && i < rows;
-        int offset = offsets.get(i);
-
-        // Key
-        final int keySize = cells.getInt(offset);
-        offset += Integer.BYTES;
-        final ByteBuffer key = keyAt(i);
-        offset += keySize;
+    @NotNull
+    private static Value valueAt(
+            @NotNull final ByteBuffer block,
+            final int offset) {
+        int position = offset + Integer.BYTES + block.getInt(offset);
 
         // Timestamp
-        final long timestamp = cells.getLong(offset);
-        offset += Long.BYTES;
+        final long timestamp = block.getLong(position);
+        position += Long.BYTES;
         if (timestamp < 0) {
-            return new Cell(key.slice(), new Value(-timestamp, null));
-        } else {
-            final int valueSize = cells.getInt(offset);
-            offset += Integer.BYTES;
-            final ByteBuffer value = cells.duplicate();
-            value.position(offset);
-            value.limit(value.position() + valueSize)
-                    .position(offset)
-                    .limit(offset + valueSize);
-            return new Cell(key.slice(), new Value(timestamp, value.slice()));
+            return new Value(-timestamp, null);
         }
+
+        // Value
+        final int valueSize = block.getInt(position);
+        position += Integer.BYTES;
+        final ByteBuffer value = block.duplicate();
+        value.position(position);
+        value.limit(position + valueSize);
+        return new Value(timestamp, value.slice());
     }
 
-    private int position(final ByteBuffer from) {
+    /**
+     * Finds the first cell of the block not less than the key.
+     */
+    private static int position(
+            @NotNull final ByteBuffer block,
+            final int count,
+            @NotNull final ByteBuffer key) {
         int left = 0;
-        int right = rows - 1;
+        int right = count - 1;
         while (left <= right) {
             final int mid = left + (right - left) / 2;
-            final int cmp = keyAt(mid).compareTo(from);
+            final int cmp = compareKeyAt(block, offsetAt(block, count, mid), key);
             if (cmp < 0) {
                 left = mid + 1;
             } else if (cmp > 0) {
@@ -160,25 +622,137 @@ public final class FileTable implements Table {
         return left;
     }
 
+    /**
+     * Looks the key up checking the key range and the Bloom filter first.
+     */
+    @Nullable
+    @Override
+    public Value get(@NotNull final ByteBuffer key) throws IOException {
+        return get(key, null);
+    }
+
+    /**
+     * Looks the key up counting Bloom filter checks and read blocks.
+     *
+     * @param key     key to look for
+     * @param metrics statistics to update or {@code null}
+     * @return the value, the tombstone or {@code null} if the table doesn't contain the key
+     * @throws IOException if an I/O error occurred
+     */
+    @Nullable
+    Value get(
+            @NotNull final ByteBuffer key,
+            @Nullable final Metrics metrics) throws IOException {
+        if (entry.minKey.compareTo(key) > 0 || entry.maxKey.compareTo(key) < 0) {
+            return null;
+        }
+        if (!mightContain(key)) {
+            if (metrics != null) {
+                metrics.bloomNegative();
+            }
+            return null;
+        }
+        if (metrics != null) {
+            metrics.blockRead();
+        }
+        final Mapping current = mapping(true);
+        final ByteBuffer block = block(current, current.blockOf(key), true);
+        final int count = count(block);
+        final int i = position(block, count, key);
+        if (i < count) {
+            final int offset = offsetAt(block, count, i);
+            if (compareKeyAt(block, offset, key) == 0) {
+                return valueAt(block, offset);
+            }
+        }
+        if (metrics != null) {
+            metrics.bloomFalsePositive();
+        }
+        return null;
+    }
+
     @NotNull
     @Override
-    public Iterator<Cell> iterator(@NotNull final ByteBuffer from) {
+    public Iterator<Cell> iterator(@NotNull final ByteBuffer from) throws IOException {
+        return iterator(from, true);
+    }
+
+    /**
+     * Iterates over all cells bypassing the {@link BlockCache}, so that
+     * compaction doesn't evict blocks of the tables it replaces anyway.
+     */
+    @NotNull
+    Iterator<Cell> scan() throws IOException {
+        return iterator(ByteBuffer.allocate(0), false);
+    }
+
+    @NotNull
+    private Iterator<Cell> iterator(
+            @NotNull final ByteBuffer from,
+            final boolean cached) throws IOException {
+        final Mapping current = mapping(cached);
+        final int first = current.blockOf(from);
+        final ByteBuffer firstBlock = block(current, first, cached);
         return new Iterator<>() {
-            int next = position(from);
+            private int blockIndex = first;
+            private ByteBuffer block = firstBlock;
+            private int count = count(block);
+            private int next = position(block, count, from);
 
             @Override
             public boolean hasNext() {
-                return next < rows;
+                while (next == count && blockIndex + 1 < current.firstKeys.length) {
+                    try {
+                        block = block(current, ++blockIndex, cached);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    count = count(block);
+                    next = 0;
+                }
+                return next < count;
             }
 
             @Override
             public Cell next() {
-                assert hasNext();
-                return cellAt(next++);
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final int offset = offsetAt(block, count, next++);
+                return new Cell(keyAt(block, offset), valueAt(block, offset));
             }
         };
     }
 
+    /**
+     * Reads the whole table checking its checksums. Tables listed in the {@link Manifest}
+     * are checked against the CRC32C of the file, older ones block by block.
+     * The file is mapped apart from the {@link TableCache}.
+     *
+     * @param throttle called with the number of bytes before they are read
+     * @throws CorruptionException if a checksum doesn't match
+     * @throws IOException         if an I/O error occurred
+     */
+    void verify(@NotNull final IntConsumer throttle) throws IOException {
+        final Mapping current = map();
+        if (entry.checksum != Manifest.NO_CHECKSUM) {
+            final CRC32C crc = new CRC32C();
+            for (long offset = 0; offset < entry.size; offset += SCRUB_CHUNK) {
+                final int size = (int) Math.min(SCRUB_CHUNK, entry.size - offset);
+                throttle.accept(size);
+                crc.update(region(current.windows, offset, size));
+            }
+            if (crc.getValue() != entry.checksum) {
+                throw new CorruptionException("Checksum mismatch of " + path);
+            }
+            return;
+        }
+        for (int i = 0; i < current.blockSizes.length; i++) {
+            throttle.accept(current.blockSizes[i]);
+            read(current, i, true);
+        }
+    }
+
     @Override
     public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) {
         throw new UnsupportedOperationException("");
@@ -192,4 +766,152 @@ public final class FileTable implements Table {
     public Path getPath() {
         return path;
     }
+
+    public int getGeneration() {
+        return entry.generation;
+    }
+
+    public int getLevel() {
+        return entry.level;
+    }
+
+    public long getRows() throws IOException {
+        return header().rows;
+    }
+
+    @NotNull
+    public ByteBuffer getMinKey() {
+        return entry.minKey.asReadOnlyBuffer();
+    }
+
+    @NotNull
+    public ByteBuffer getMaxKey() {
+        return entry.maxKey.asReadOnlyBuffer();
+    }
+
+    @NotNull
+    Manifest.Entry getEntry() {
+        return entry;
+    }
+
+    /**
+     * Checks whether the table may contain keys of the range.
+     *
+     * @param from the first key of the range
+     * @param to   the last key of the range, inclusive
+     * @return {@code true} if the key ranges intersect
+     */
+    public boolean overlaps(
+            @NotNull final ByteBuffer from,
+            @NotNull final ByteBuffer to) {
+        return entry.minKey.compareTo(to) <= 0 && entry.maxKey.compareTo(from) >= 0;
+    }
+
+    /**
+     * Footer and Bloom filter of the file.
+     */
+    private static final class Header {
+        private final long rows;
+        private final long indexOffset;
+        private final int indexSize;
+        private final BloomFilter bloomFilter;
+
+        // Null for tables without block headers
+        private final Codec codec;
+        private final int indexChecksum;
+
+        private Header(
+                final long rows,
+                final long indexOffset,
+                final int indexSize,
+                @NotNull final BloomFilter bloomFilter,
+                @Nullable final Codec codec,
+                final int indexChecksum) {
+            this.rows = rows;
+            this.indexOffset = indexOffset;
+            this.indexSize = indexSize;
+            this.bloomFilter = bloomFilter;
+            this.codec = codec;
+            this.indexChecksum = indexChecksum;
+        }
+
+        @NotNull
+        private static Header read(
+                @NotNull final FileChannel fc,
+                final long sizeInBytes,
+                @NotNull final Path path,
+                @NotNull final Config config) throws IOException {
+            if (sizeInBytes < FOOTER_SIZE) {
+                throw new IOException("Truncated FileTable " + path);
+            }
+            final ByteBuffer footer = FileTable.read(fc, sizeInBytes - FOOTER_SIZE, FOOTER_SIZE);
+            if (footer.getLong(FOOTER_SIZE - Long.BYTES) != MAGIC
+                    || footer.getInt(FOOTER_SIZE - Long.BYTES - Integer.BYTES) != VERSION) {
+                throw new IOException("Unsupported format of FileTable " + path);
+            }
+            final long bloomOffset = footer.getLong();
+            final int bloomHashes = footer.getInt();
+            final long indexOffset = footer.getLong();
+            final int indexSize = (int) (sizeInBytes - FOOTER_SIZE - indexOffset);
+            final long rows = footer.getLong();
+            final int codecId = footer.getInt();
+            final Codec codec = codecId == RAW_BLOCK ? null : config.findCodec(codecId);
+            if (codecId != RAW_BLOCK && codec == null) {
+                throw new IOException("Unknown codec " + codecId + " of FileTable " + path);
+            }
+            final int bloomChecksum = footer.getInt();
+            final int indexChecksum = footer.getInt();
+
+            // Bloom filter
+            final ByteBuffer bloom = FileTable.read(fc, bloomOffset, (int) (indexOffset - bloomOffset));
+            if (!matches(bloom, bloomChecksum)) {
+                throw new CorruptionException("Checksum mismatch of the Bloom filter of " + path);
+            }
+            final BloomFilter bloomFilter = BloomFilter.read(bloom, bloomHashes);
+            return new Header(rows, indexOffset, indexSize, bloomFilter, codec, indexChecksum);
+        }
+    }
+
+    /**
+     * Mapped file with the index of its blocks, whose keys stay mapped.
+     */
+    static final class Mapping {
+        private final ByteBuffer[] windows;
+        private final ByteBuffer[] firstKeys;
+        private final long[] blockOffsets;
+        private final int[] blockSizes;
+        private final int[] blockChecksums;
+
+        private Mapping(
+                @NotNull final ByteBuffer[] windows,
+                @NotNull final ByteBuffer[] firstKeys,
+                @NotNull final long[] blockOffsets,
+                @NotNull final int[] blockSizes,
+                @NotNull final int[] blockChecksums) {
+            this.windows = windows;
+            this.firstKeys = firstKeys;
+            this.blockOffsets = blockOffsets;
+            this.blockSizes = blockSizes;
+            this.blockChecksums = blockChecksums;
+        }
+
+        /**
+         * Finds the only block which may contain the key.
+         *
+         * @return index of the last block starting not after the key or {@code 0}
+         */
+        private int blockOf(@NotNull final ByteBuffer key) {
+            int left = 1;
+            int right = firstKeys.length - 1;
+            while (left <= right) {
+                final int mid = left + (right - left) / 2;
+                if (firstKeys[mid].compareTo(key) <= 0) {
+                    left = mid + 1;
+                } else {
+                    right = mid - 1;
+                }
+            }
+            return left - 1;
+        }
+    }
 }
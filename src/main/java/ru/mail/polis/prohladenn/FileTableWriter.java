@@ -0,0 +1,309 @@
+package ru.mail.polis.prohladenn;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Writes sorted cells in the block format read by {@link FileTable}.
+ *
+ * <p>Everything goes through a large direct buffer, so the channel is written
+ * in big chunks without copying to a temporary direct buffer first. Data which
+ * doesn't fit the buffer is written along with it in a single gathering write.
+ * CRC32Cs of every block, of the Bloom filter, of the index and of the whole
+ * file are computed on the way to the channel.
+ */
+final class FileTableWriter {
+    private static final int OUTPUT_BUFFER_SIZE = 1024 * 1024;
+
+    // Tables are written by a few long-living threads, which keep their buffers
+    private static final ThreadLocal<ByteBuffer> OUTPUT =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE));
+
+    private final FileChannel channel;
+    private final int blockSize;
+    private final int bitsPerKey;
+    private final Codec codec;
+    private final ByteBuffer out;
+    private final CRC32C checksum = new CRC32C();
+    private final CRC32C blockChecksum = new CRC32C();
+
+    // Checksum of the written part of the Bloom filter or the index
+    private CRC32C metadata;
+
+    // Current block
+    private ByteBuffer block;
+    private int[] cellOffsets = new int[64];
+    private int cells;
+
+    // Sparse index; heap keys are copied, since a key may pin the whole decompressed block it was read from,
+    // while mapped and off-heap ones are referenced, costing no heap
+    private final List<ByteBuffer> firstKeys = new ArrayList<>();
+    private long[] blockOffsets = new long[16];
+    private int[] blockSizes = new int[16];
+    private int[] blockChecksums = new int[16];
+    private ByteBuffer lastKey = ByteBuffer.allocate(0);
+
+    private long[] keyHashes = new long[64];
+    private long rows;
+    private long position;
+
+    FileTableWriter(
+            @NotNull final FileChannel channel,
+            final int blockSize,
+            final int bitsPerKey,
+            @Nullable final Codec codec) {
+        this.channel = channel;
+        this.blockSize = blockSize;
+        this.bitsPerKey = bitsPerKey;
+        this.codec = codec;
+        this.block = ByteBuffer.allocate(blockSize * 2);
+        this.out = OUTPUT.get();
+        this.out.clear();
+    }
+
+    void add(@NotNull final Cell cell) throws IOException {
+        final ByteBuffer key = cell.getKey();
+        final Value value = cell.getValue();
+        final int valueSize = value.isRemoved() ? 0 : value.getData().remaining();
+        final long size = Integer.BYTES * 3L + Long.BYTES + key.remaining() + valueSize;
+        if (size > FileTable.MAX_BLOCK_SIZE / 2) {
+            throw new IOException("Cell of " + size + " bytes is too large");
+        }
+        if (cells > 0 && block.position() + size > blockSize) {
+            flushBlock();
+        }
+        if (cells == 0) {
+            firstKeys.add(key.isDirect() ? key : ByteBuffer.allocate(key.remaining()).put(key.duplicate()).flip());
+        }
+
+        // Cell
+        ensure(size);
+        if (cells == cellOffsets.length) {
+            cellOffsets = Arrays.copyOf(cellOffsets, cells * 2);
+        }
+        cellOffsets[cells++] = block.position();
+        block.putInt(key.remaining());
+        block.put(key.duplicate());
+        if (value.isRemoved()) {
+            block.putLong(-value.getTimeStamp());
+        } else {
+            block.putLong(value.getTimeStamp());
+            block.putInt(valueSize);
+            block.put(value.getData());
+        }
+
+        // Bloom filter
+        if (bitsPerKey != 0) {
+            if (rows == keyHashes.length) {
+                keyHashes = Arrays.copyOf(keyHashes, keyHashes.length * 2);
+            }
+            keyHashes[(int) rows] = BloomFilter.hash(key);
+        }
+        rows++;
+        if (lastKey.capacity() < key.remaining()) {
+            lastKey = ByteBuffer.allocate(Math.max(key.remaining(), lastKey.capacity() * 2));
+        }
+        lastKey.clear();
+        lastKey.put(key.duplicate()).flip();
+        if (block.position() >= blockSize) {
+            flushBlock();
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        ensure(Integer.BYTES * (cells + 1L));
+        for (int i = 0; i < cells; i++) {
+            block.putInt(cellOffsets[i]);
+        }
+        block.putInt(cells);
+        block.flip();
+
+        final int index = firstKeys.size() - 1;
+        if (index == blockOffsets.length) {
+            blockOffsets = Arrays.copyOf(blockOffsets, index * 2);
+            blockSizes = Arrays.copyOf(blockSizes, index * 2);
+            blockChecksums = Arrays.copyOf(blockChecksums, index * 2);
+        }
+        blockOffsets[index] = position;
+        blockChecksum.reset();
+        if (codec == null) {
+            blockChecksum.update(block.duplicate());
+            write(block);
+        } else {
+            // Blocks which barely compress are stored as is to save decompression
+            final ByteBuffer compressed = codec.compress(block);
+            final boolean worth = compressed.remaining() < block.remaining() - block.remaining() / 8;
+            final ByteBuffer header = ByteBuffer.allocate(FileTable.BLOCK_HEADER_SIZE);
+            header.put(worth ? (byte) codec.getId() : FileTable.RAW_BLOCK).putInt(block.remaining()).flip();
+            final ByteBuffer payload = worth ? compressed : block;
+            blockChecksum.update(header.duplicate());
+            blockChecksum.update(payload.duplicate());
+            write(header);
+            write(payload);
+        }
+        blockChecksums[index] = (int) blockChecksum.getValue();
+        blockSizes[index] = (int) (position - blockOffsets[index]);
+        block.clear();
+        cells = 0;
+    }
+
+    /**
+     * Writes the last block, the Bloom filter, the index and the footer.
+     *
+     * @return size of the table in bytes
+     */
+    long finish() throws IOException {
+        if (cells > 0) {
+            flushBlock();
+        }
+        if (rows == 0) {
+            throw new IOException("Nothing to write");
+        }
+        if (rows > Integer.MAX_VALUE && bitsPerKey != 0) {
+            throw new IOException("Too many rows for a Bloom filter: " + rows);
+        }
+
+        // Bloom filter, drained before and after to checksum it apart from the rest
+        drain();
+        metadata = new CRC32C();
+        final long bloomOffset = position;
+        final BloomFilter filter = BloomFilter.create(keyHashes, (int) rows, bitsPerKey);
+        write(filter.toBuffer());
+        drain();
+        final int bloomChecksum = (int) metadata.getValue();
+
+        // Index
+        metadata.reset();
+        final long indexOffset = position;
+        putInt(firstKeys.size());
+        for (int i = 0; i < firstKeys.size(); i++) {
+            putKey(firstKeys.get(i));
+            ensureRemaining(Long.BYTES + Integer.BYTES * 2);
+            out.putLong(blockOffsets[i]);
+            out.putInt(blockSizes[i]);
+            out.putInt(blockChecksums[i]);
+            position += Long.BYTES + Integer.BYTES * 2;
+        }
+        putKey(lastKey);
+        drain();
+        final int indexChecksum = (int) metadata.getValue();
+        metadata = null;
+
+        // Footer
+        ensureRemaining(FileTable.FOOTER_SIZE);
+        out.putLong(bloomOffset);
+        out.putInt(filter.getHashes());
+        out.putLong(indexOffset);
+        out.putLong(rows);
+        out.putInt(codec == null ? FileTable.RAW_BLOCK : codec.getId());
+        out.putInt(bloomChecksum);
+        out.putInt(indexChecksum);
+        out.putInt(FileTable.VERSION);
+        out.putLong(FileTable.MAGIC);
+        position += FileTable.FOOTER_SIZE;
+        drain();
+        return position;
+    }
+
+    /**
+     * Returns the size of the table written by {@link #finish()}.
+     */
+    long getSize() {
+        return position;
+    }
+
+    /**
+     * Returns the CRC32C of the table written by {@link #finish()}.
+     */
+    long getChecksum() {
+        return checksum.getValue();
+    }
+
+    /**
+     * Returns a heap copy of the first key of the table.
+     */
+    @NotNull
+    ByteBuffer getMinKey() {
+        final ByteBuffer key = firstKeys.get(0);
+        return key.isDirect() ? ByteBuffer.allocate(key.remaining()).put(key.duplicate()).flip() : key;
+    }
+
+    /**
+     * Returns a heap copy of the last key of the table, reused by the writer until it is finished.
+     */
+    @NotNull
+    ByteBuffer getMaxKey() {
+        return lastKey;
+    }
+
+    private void putInt(final int value) throws IOException {
+        ensureRemaining(Integer.BYTES);
+        out.putInt(value);
+        position += Integer.BYTES;
+    }
+
+    private void putKey(@NotNull final ByteBuffer key) throws IOException {
+        putInt(key.remaining());
+        write(key.duplicate());
+    }
+
+    /**
+     * Appends the buffer to the output, consuming it.
+     */
+    private void write(@NotNull final ByteBuffer buffer) throws IOException {
+        final int size = buffer.remaining();
+        if (size <= out.remaining()) {
+            out.put(buffer);
+        } else {
+            out.flip();
+            update(out);
+            update(buffer);
+            final ByteBuffer[] buffers = {out, buffer};
+            while (buffer.hasRemaining()) {
+                channel.write(buffers);
+            }
+            out.clear();
+        }
+        position += size;
+    }
+
+    private void ensureRemaining(final int bytes) throws IOException {
+        if (out.remaining() < bytes) {
+            drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        out.flip();
+        update(out);
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    private void update(@NotNull final ByteBuffer written) {
+        checksum.update(written.duplicate());
+        if (metadata != null) {
+            metadata.update(written.duplicate());
+        }
+    }
+
+    private void ensure(final long bytes) {
+        if (block.remaining() < bytes) {
+            final long capacity = Math.max(Math.min(block.capacity() * 2L, FileTable.MAX_BLOCK_SIZE), block.position() + bytes);
+            final ByteBuffer grown = ByteBuffer.allocate((int) capacity);
+            block.flip();
+            grown.put(block);
+            block = grown;
+        }
+    }
+}
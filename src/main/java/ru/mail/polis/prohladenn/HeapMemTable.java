@@ -0,0 +1,112 @@
+package ru.mail.polis.prohladenn;
+
+import com.google.common.collect.Iterators;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link MemTable} keeping cells in a {@link ConcurrentSkipListMap} on the heap.
+ *
+ * <p>Its size is the heap it retains, estimated from the HotSpot object layout:
+ * a skip list node with the expected share of index nodes, the {@link Value},
+ * the key and value {@link ByteBuffer}s and their arrays. The estimate is exact
+ * for buffers wrapping whole arrays, which is how they usually come.
+ */
+final class HeapMemTable extends MemTable {
+    // Oops are compressed by default for heaps under 32 GB
+    private static final boolean COMPRESSED = Runtime.getRuntime().maxMemory() < 32L * 1024 * 1024 * 1024;
+    private static final int REFERENCE = COMPRESSED ? 4 : 8;
+    private static final int HEADER = COMPRESSED ? 12 : 16;
+    private static final int ARRAY_HEADER = COMPRESSED ? 16 : 24;
+
+    // Key, value and next references
+    private static final long NODE = align(HEADER + 3L * REFERENCE);
+
+    // Node, down and right references. Every fourth node is indexed and every
+    // index level is taken with the probability of a half, two levels on average
+    private static final long INDEX = align(HEADER + 3L * REFERENCE) / 2;
+
+    // Timestamp and data reference
+    private static final long VALUE = align(HEADER + Long.BYTES + REFERENCE);
+
+    // Mark, position, limit and capacity, the address, the array and the memory
+    // segment references, the array offset and three flags
+    private static final long BUFFER = align(HEADER + 4L * Integer.BYTES + Long.BYTES + 2L * REFERENCE
+            + Integer.BYTES + 3);
+
+    private final ConcurrentNavigableMap<ByteBuffer, Value> map = new ConcurrentSkipListMap<>();
+    private final AtomicLong sizeInBytes = new AtomicLong();
+
+    @Override
+    public long sizeInBytes() {
+        return sizeInBytes.get();
+    }
+
+    @Override
+    boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> iterator(@NotNull final ByteBuffer from) {
+        return Iterators.transform(
+                map.tailMap(from).entrySet().iterator(),
+                e -> new Cell(e.getKey(), e.getValue()));
+    }
+
+    @Nullable
+    @Override
+    public Value get(@NotNull final ByteBuffer key) {
+        return map.get(key);
+    }
+
+    @Override
+    void put(@NotNull final ByteBuffer key, @NotNull final Value value) {
+        while (true) {
+            final Value previous = map.putIfAbsent(key, value);
+            if (previous == null) {
+                sizeInBytes.addAndGet(sizeOf(key, value));
+                return;
+            }
+            if (previous.getTimeStamp() > value.getTimeStamp()) {
+                return;
+            }
+            if (map.replace(key, previous, value)) {
+                sizeInBytes.addAndGet(sizeOf(value) - sizeOf(previous));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Estimates the heap retained by a cell of the MemTable.
+     *
+     * @param key   key of the cell
+     * @param value value of the cell
+     * @return size in bytes
+     */
+    static long sizeOf(
+            @NotNull final ByteBuffer key,
+            @NotNull final Value value) {
+        return NODE + INDEX + sizeOf(key) + sizeOf(value);
+    }
+
+    private static long sizeOf(@NotNull final Value value) {
+        return VALUE + (value.isRemoved() ? 0L : sizeOf(value.getData()));
+    }
+
+    private static long sizeOf(@NotNull final ByteBuffer buffer) {
+        return BUFFER + (buffer.isDirect() ? 0L : align(ARRAY_HEADER + (long) buffer.remaining()));
+    }
+
+    private static long align(final long size) {
+        return (size + 7) & ~7L;
+    }
+}
@@ -1,188 +1,1093 @@
 package ru.mail.polis.prohladenn;
 
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import ru.mail.polis.DAO;
 import ru.mail.polis.DAOFactory;
-import ru.mail.polis.Iters;
 import ru.mail.polis.Record;
+import ru.mail.polis.WriteBatch;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileVisitOption;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
+/**
+ * Thread-safe LSM storage.
+ *
+ * <p>Mutations run concurrently under the shared lock, while replacing the
+ * {@link TableSet} takes the exclusive one. A full MemTable is frozen and
+ * written to disk by a background flusher, so writers only wait when too
+ * many frozen MemTables pile up.
+ *
+ * <p>FileTables are merged on a separate compaction thread chosen by the
+ * {@link CompactionStrategy}; the merged tables atomically replace their inputs.
+ *
+ * <p>The set of FileTables with their levels and key ranges is kept in the
+ * {@link Manifest}, which a flush or a compaction updates with a single edit.
+ * Startup reads only the manifest and removes files it doesn't list, such as
+ * tables written by an operation a crash interrupted. Folders written before
+ * the manifest are recovered from the names of the files once.
+ */
 public final class LSMDao implements DAO {
+    private static final Logger log = LoggerFactory.getLogger(LSMDao.class);
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
     private static final String SUFFIX = ".dat";
     private static final String TEMP = ".tmp";
     private static final String PREFIX = "DB";
+    private static final String LEVEL = "_L";
 
-    private final long flushThreshold;
+    private final Config config;
     private final File base;
-    private Collection<FileTable> fileTables;
     private final boolean isSnapshot;
     private final Collection<String> snapshots;
-    private Table memTable;
-    private int generation;
+    private final CommitLog commitLog;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Lock compactionLock = new ReentrantLock();
+    private final Semaphore flushPermits;
+    private final ExecutorService flusher;
+    private final CompactionStrategy compactionStrategy;
+
+    // Touched by the compaction thread only
+    private final Map<Integer, ByteBuffer> compactionCursors = new HashMap<>();
+    private final RateLimiter compactionLimiter;
+    private final ExecutorService compactor;
+    private final ScheduledExecutorService scrubber;
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    private final AtomicInteger nextGeneration;
+    private final Manifest manifest;
+    private final Metrics metrics;
+    private final ObjectName mxBeanName;
+    private volatile TableSet tables;
+    private volatile boolean closed;
+    private volatile Exception flushFailure;
 
     /**
      * Creates persistence LSMDao.
      *
      * @param base           folder with FileTable
      * @param flushThreshold threshold memTable's size
+     * @param isSnapshot     whether the folder is removed on close
      * @throws IOException if an I/O error occurred
      */
     public LSMDao(
             final File base,
             final long flushThreshold,
             final boolean isSnapshot) throws IOException {
-        assert flushThreshold >= 0L;
+        this(base, Config.builder().flushThreshold(flushThreshold).build(), isSnapshot);
+    }
+
+    /**
+     * Creates persistence LSMDao and restores MemTable from {@link CommitLog}.
+     *
+     * @param base       folder with FileTable
+     * @param config     tuning options
+     * @param isSnapshot whether the folder is removed on close
+     * @throws IOException if an I/O error occurred
+     */
+    public LSMDao(
+            final File base,
+            @NotNull final Config config,
+            final boolean isSnapshot) throws IOException {
         this.base = base;
-        this.flushThreshold = flushThreshold;
+        this.config = config;
         this.isSnapshot = isSnapshot;
-        this.memTable = new MemTable();
-        this.fileTables = new ArrayList<>();
         this.snapshots = new ArrayList<>();
-        this.generation = 0;
-        Files.walkFileTree(
-                base.toPath(),
-                EnumSet.of(FileVisitOption.FOLLOW_LINKS),
-                1,
-                new SimpleFileVisitor<>() {
-                    @Override
-                    public FileVisitResult visitFile(
-                            final Path path,
-                            final BasicFileAttributes attrs) throws IOException {
-                        final String fileName = path.getFileName().toString();
-                        if (fileName.endsWith(SUFFIX)
-                                && fileName.startsWith(PREFIX)) {
-                            final int fileGen = Integer.valueOf(
-                                    fileName.substring(
-                                            PREFIX.length(),
-                                            fileName.length() - SUFFIX.length()));
-                            generation = Math.max(generation, fileGen + 1);
-                            fileTables.add(new FileTable(path.toFile()));
+        this.flushPermits = new Semaphore(config.getMaxImmutableMemTables());
+        this.compactionStrategy = config.getCompactionStrategy();
+        this.compactionLimiter = config.getCompactionBytesPerSecond() == 0L
+                ? null
+                : RateLimiter.create(config.getCompactionBytesPerSecond());
+        final List<FileTable> files = new ArrayList<>();
+        final int[] generation = {0};
+        if (Manifest.exists(base)) {
+            this.manifest = Manifest.open(base);
+            for (final Manifest.Entry entry : manifest.getEntries()) {
+                files.add(new FileTable(new File(base, entry.fileName()), entry, config));
+            }
+            generation[0] = manifest.getNextGeneration();
+        } else {
+            Files.walkFileTree(
+                    base.toPath(),
+                    EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+                    1,
+                    new SimpleFileVisitor<>() {
+                        @Override
+                        public FileVisitResult visitFile(
+                                final Path path,
+                                final BasicFileAttributes attrs) throws IOException {
+                            final String fileName = path.getFileName().toString();
+                            if (fileName.endsWith(SUFFIX)
+                                    && fileName.startsWith(PREFIX)) {
+                                final String name = fileName.substring(
+                                        PREFIX.length(),
+                                        fileName.length() - SUFFIX.length());
+                                final int separator = name.indexOf(LEVEL);
+                                final int fileGen =
+                                        Integer.parseInt(separator < 0 ? name : name.substring(0, separator));
+                                final int level = separator < 0 ? 0 : Integer.parseInt(name.substring(separator + 2));
+                                generation[0] = Math.max(generation[0], fileGen + 1);
+                                files.add(FileTable.open(path.toFile(), fileGen, level, config));
+                            }
+                            return FileVisitResult.CONTINUE;
                         }
-                        return FileVisitResult.CONTINUE;
+                    });
+            removeCompacted(files);
+            final List<Manifest.Entry> entries = new ArrayList<>(files.size());
+            for (final FileTable file : files) {
+                entries.add(file.getEntry());
+            }
+            this.manifest = Manifest.create(base, entries, generation[0]);
+            log.info("Created manifest of {} tables in {}", files.size(), base);
+        }
+        removeUnlisted(base, files);
+        files.sort(TableSet.ORDER);
+
+        // Restore the MemTable of the previous run
+        this.commitLog = new CommitLog(base, generation[0], config.getSyncPolicy(), config.getSyncIntervalMillis());
+        final MemTable recovered = MemTable.create(config);
+        commitLog.replay(recovered);
+        final FileTable restored = write(recovered.iterator(EMPTY), generation[0], 0, generation[0]);
+        if (restored != null) {
+            manifest.apply(List.of(restored.getEntry()), List.of(), generation[0] + 1);
+            files.add(restored);
+            generation[0]++;
+            commitLog.roll(generation[0]);
+        }
+        commitLog.discardReplayed();
+
+        this.nextGeneration = new AtomicInteger(generation[0] + 1);
+        this.tables = new TableSet(MemTable.create(config), new ArrayList<>(), files, generation[0]);
+        this.metrics = new Metrics(() -> tables, config.getBlockCache(), config.getTableCache());
+        try {
+            this.mxBeanName = config.isJmxEnabled() ? register(metrics, base) : null;
+        } catch (IOException e) {
+            commitLog.close();
+            manifest.close();
+            throw e;
+        }
+        this.flusher = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("flusher-%d")
+                        .setDaemon(true)
+                        .build());
+        this.compactor = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("compactor-%d")
+                        .setDaemon(true)
+                        .build());
+        if (config.getScrubBytesPerSecond() == 0L) {
+            this.scrubber = null;
+        } else {
+            this.scrubber = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("scrubber-%d")
+                            .setDaemon(true)
+                            .build());
+            final RateLimiter limiter = RateLimiter.create(config.getScrubBytesPerSecond());
+            scrubber.scheduleWithFixedDelay(
+                    () -> scrub(limiter),
+                    config.getScrubIntervalMillis(),
+                    config.getScrubIntervalMillis(),
+                    TimeUnit.MILLISECONDS);
+        }
+        if (config.getMemoryBudget() != null && !isSnapshot) {
+            config.getMemoryBudget().open();
+        }
+        scheduleCompaction();
+    }
+
+    /**
+     * Removes leftovers of a compaction interrupted by a crash.
+     * Its outputs are already written, have newer generations and contain
+     * everything of the inputs of their level, which they overlap.
+     *
+     * @param files FileTables found on disk, the survivors are kept
+     * @throws IOException if an I/O error occurred
+     */
+    private static void removeCompacted(@NotNull final List<FileTable> files) throws IOException {
+        files.sort(Comparator.comparingInt(FileTable::getGeneration).reversed());
+        final List<FileTable> live = new ArrayList<>(files.size());
+        for (final FileTable file : files) {
+            boolean compacted = false;
+            if (file.getLevel() > 0) {
+                for (final FileTable newer : live) {
+                    if (newer.getLevel() == file.getLevel()
+                            && newer.overlaps(file.getMinKey(), file.getMaxKey())) {
+                        compacted = true;
+                        break;
                     }
-                });
+                }
+            }
+            if (compacted) {
+                log.info("Removing compacted {}", file.getPath());
+                Files.delete(file.getPath());
+            } else {
+                live.add(file);
+            }
+        }
+        files.retainAll(live);
+    }
+
+    /**
+     * Removes files named like FileTables which aren't tables of the storage:
+     * outputs of a flush or a compaction interrupted before the manifest listed them,
+     * inputs of a compaction replaced by it and temporary files of older versions.
+     *
+     * @param base  folder of the storage
+     * @param files the tables of the storage
+     * @throws IOException if an I/O error occurred
+     */
+    private static void removeUnlisted(
+            @NotNull final File base,
+            @NotNull final Collection<FileTable> files) throws IOException {
+        final Collection<Path> listed = new HashSet<>();
+        for (final FileTable file : files) {
+            listed.add(file.getPath().getFileName());
+        }
+        final Collection<Path> unlisted = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(base.toPath(), PREFIX + "*")) {
+            for (final Path path : stream) {
+                final String name = path.getFileName().toString();
+                if ((name.endsWith(SUFFIX) || name.endsWith(TEMP)) && !listed.contains(path.getFileName())) {
+                    unlisted.add(path);
+                }
+            }
+        }
+        for (final Path path : unlisted) {
+            log.info("Removing {} not listed in the manifest", path);
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Returns the name of a FileTable file.
+     *
+     * @param fileId unique number of the file
+     * @param level  level of the table
+     * @return {@code DB<fileId>.dat} for level 0 or {@code DB<fileId>_L<level>.dat}
+     */
+    @NotNull
+    static String fileName(
+            final int fileId,
+            final int level) {
+        return level == 0 ? PREFIX + fileId + SUFFIX : PREFIX + fileId + LEVEL + level + SUFFIX;
+    }
+
+    /**
+     * Returns the name of a temporary file, which is removed on startup if a crash leaves it.
+     *
+     * @param fileId unique number of the file
+     * @return {@code DB<fileId>.tmp}
+     */
+    @NotNull
+    static String tempFileName(final int fileId) {
+        return PREFIX + fileId + TEMP;
+    }
+
+    @NotNull
+    private static ObjectName register(
+            @NotNull final Metrics metrics,
+            @NotNull final File base) throws IOException {
+        try {
+            final ObjectName name = new ObjectName(
+                    LSMDao.class.getPackageName() + ":type=LSMDao,path=" + ObjectName.quote(base.getAbsolutePath()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            return name;
+        } catch (JMException e) {
+            throw new IOException("Can't register metrics of " + base, e);
+        }
+    }
+
+    /**
+     * Returns statistics of the storage, which are also available over JMX
+     * if {@link Config.Builder#jmx(boolean)} is enabled.
+     */
+    @NotNull
+    public Metrics getMetrics() {
+        return metrics;
     }
 
     @NotNull
     @Override
     public Iterator<Record> iterator(@NotNull final ByteBuffer from) throws IOException {
+        final long start = System.nanoTime();
+        final Iterator<Cell> cells = cellIterator(from);
+        metrics.getIteratorLatency().record(System.nanoTime() - start);
         return Iterators.transform(
-                cellIterator(from),
+                cells,
                 cell -> Record.of(cell.getKey(), cell.getValue().getData()));
     }
 
     @NotNull
     private Iterator<Cell> cellIterator(@NotNull final ByteBuffer from) throws IOException {
-        final Collection<Iterator<Cell>> filesIterators = new ArrayList<>(fileTables.size() + 1);
+        final TableSet snapshot = this.tables;
+        final Collection<Iterator<Cell>> filesIterators =
+                new ArrayList<>(snapshot.files.size() + snapshot.flushing.size() + 1);
 
         // SSTables iterators
-        for (final FileTable fileTable : fileTables) {
+        for (final FileTable fileTable : snapshot.files) {
             filesIterators.add(fileTable.iterator(from));
         }
 
+        // Frozen MemTables iterators
+        for (final MemTable frozen : snapshot.flushing) {
+            filesIterators.add(frozen.iterator(from));
+        }
+
         // MemTable iterator
-        filesIterators.add(memTable.iterator(from));
-        final Iterator<Cell> cells = Iters.collapseEquals(Iterators.mergeSorted(filesIterators, Cell.COMPARATOR),
-                Cell::getKey);
-        final Iterator<Cell> alive =
-                Iterators.filter(
-                        cells,
-                        cell -> !cell.getValue().isRemoved());
-        return alive;
+        filesIterators.add(snapshot.memTable.iterator(from));
+        final Iterator<Cell> cells = Cell.merge(filesIterators);
+        return Iterators.filter(
+                cells,
+                cell -> {
+                    if (cell.getValue().isRemoved()) {
+                        metrics.tombstoneScanned();
+                        return false;
+                    }
+                    return true;
+                });
     }
 
+    /**
+     * Probes the tables from the newest to the oldest and stops at the first
+     * value or tombstone of the key. Timestamps are taken under the shared lock,
+     * so a newer table always holds newer values.
+     * FileTables of deeper levels don't overlap, so at most one of them per level
+     * passes the key range check and gets searched.
+     */
+    @NotNull
     @Override
-    public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) throws IOException {
-        memTable.upsert(key, value);
-        if (memTable.sizeInBytes() >= flushThreshold) {
-            flush(memTable.iterator(ByteBuffer.allocate(0)));
+    public ByteBuffer get(@NotNull final ByteBuffer key) throws IOException, NoSuchElementException {
+        final long start = System.nanoTime();
+        try {
+            final TableSet snapshot = this.tables;
+            Value value = snapshot.memTable.get(key);
+            for (int i = snapshot.flushing.size() - 1; value == null && i >= 0; i--) {
+                value = snapshot.flushing.get(i).get(key);
+            }
+            try {
+                for (int i = snapshot.files.size() - 1; value == null && i >= 0; i--) {
+                    value = snapshot.files.get(i).get(key, metrics);
+                }
+            } catch (CorruptionException e) {
+                metrics.corrupted();
+                throw e;
+            }
+            if (value == null || value.isRemoved()) {
+                throw new NoSuchElementException("Not found");
+            }
+            return value.getData();
+        } finally {
+            metrics.getGetLatency().record(System.nanoTime() - start);
         }
     }
 
-    private String flush(@NotNull final Iterator<Cell> iterator) throws IOException {
-        if (!iterator.hasNext()) return "";
-        final File tmp = new File(base, PREFIX + generation + TEMP);
-        FileTable.write(iterator, tmp);
-        final File dest = new File(base, PREFIX + generation + SUFFIX);
-        Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE);
-        generation++;
-        memTable = new MemTable();
-        return dest.toPath().toString();
+    @Override
+    public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) throws IOException {
+        final long start = System.nanoTime();
+        apply(key, value);
+        metrics.getUpsertLatency().record(System.nanoTime() - start);
     }
 
     @Override
     public void remove(@NotNull final ByteBuffer key) throws IOException {
-        memTable.remove(key);
-        if (memTable.sizeInBytes() >= flushThreshold) {
-            flush(memTable.iterator(ByteBuffer.allocate(0)));
+        final long start = System.nanoTime();
+        apply(key, null);
+        metrics.getRemoveLatency().record(System.nanoTime() - start);
+    }
+
+    /**
+     * Applies the batch with a single commit log record, so it survives a crash
+     * entirely or not at all, and checks the MemTable size once.
+     * Concurrent readers may see a part of the batch applied.
+     */
+    @Override
+    public void write(@NotNull final WriteBatch batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        checkFlushed();
+        final long start = System.nanoTime();
+        final ByteBuffer[] keys = new ByteBuffer[batch.size()];
+        final Value[] values = new Value[batch.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = batch.getKey(i);
+        }
+        lock.readLock().lock();
+        try {
+            // Timestamps grow along the batch, so later mutations of a key win
+            final long timestamp = Value.reserve(values.length);
+            for (int i = 0; i < values.length; i++) {
+                values[i] = new Value(timestamp + i, batch.getValue(i));
+            }
+            commitLog.append(keys, values);
+            final MemTable memTable = tables.memTable;
+            for (int i = 0; i < keys.length; i++) {
+                memTable.put(keys[i], values[i]);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        final long threshold = config.getFlushThreshold();
+        if (tables.memTable.sizeInBytes() >= threshold) {
+            freeze(threshold);
+        }
+        metrics.getBatchLatency().record(System.nanoTime() - start);
+    }
+
+    private void apply(
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer data) throws IOException {
+        checkFlushed();
+        lock.readLock().lock();
+        try {
+            // Freezing waits for us, so all values of a MemTable are older than the next one's
+            final Value value = data == null ? Value.tombstone() : Value.of(data);
+            commitLog.append(key, value);
+            tables.memTable.put(key, value);
+        } finally {
+            lock.readLock().unlock();
+        }
+        final long threshold = config.getFlushThreshold();
+        if (tables.memTable.sizeInBytes() >= threshold) {
+            freeze(threshold);
+        }
+    }
+
+    /**
+     * Hands the active MemTable over to the background flusher.
+     * Blocks while too many frozen MemTables are waiting to be written.
+     *
+     * @param threshold minimal size of the MemTable to freeze
+     * @throws IOException if an I/O error occurred
+     */
+    private void freeze(final long threshold) throws IOException {
+        acquireFlushPermit();
+        boolean scheduled = false;
+        lock.writeLock().lock();
+        try {
+            // Somebody could freeze it while we were waiting
+            final TableSet current = tables;
+            if (current.memTable.sizeInBytes() >= threshold && !current.memTable.isEmpty()) {
+                freezeLocked();
+                scheduled = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+            if (!scheduled) {
+                flushPermits.release();
+            }
+        }
+    }
+
+    private void acquireFlushPermit() throws InterruptedIOException {
+        try {
+            flushPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for flush");
+        }
+    }
+
+    /**
+     * Replaces the active MemTable with an empty one of the next generation and schedules its flush,
+     * which releases the flush permit. Runs under the exclusive lock.
+     */
+    private void freezeLocked() throws IOException {
+        final TableSet current = tables;
+        final int generation = nextGeneration.getAndIncrement();
+        tables = current.freeze(MemTable.create(config), generation);
+        commitLog.roll(generation);
+        flusher.execute(() -> flush(current.memTable, current.generation));
+    }
+
+    private void flush(
+            @NotNull final MemTable memTable,
+            final int generation) {
+        try {
+            if (flushFailure != null) {
+                // Stays behind the failed MemTable, so FileTables never get newer than a frozen MemTable
+                return;
+            }
+            final long start = System.nanoTime();
+            final FileTable file = write(memTable.iterator(EMPTY), generation, 0, generation);
+            metrics.flushed(System.nanoTime() - start, file == null ? 0L : file.sizeInBytes());
+            if (file != null) {
+                manifest.apply(List.of(file.getEntry()), List.of(), nextGeneration.get());
+            }
+            lock.writeLock().lock();
+            try {
+                tables = tables.flushed(memTable, file);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            commitLog.release(generation);
+            scheduleCompaction();
+        } catch (IOException | RuntimeException e) {
+            // The MemTable and the later ones stay readable and will be restored from the commit log
+            flushFailure = e;
+            log.error("Can't flush MemTable of generation " + generation + ", writes are rejected until reopening", e);
+        } finally {
+            flushPermits.release();
+        }
+    }
+
+    /**
+     * Waits until everything written before the call is stored in FileTables.
+     *
+     * @throws IOException if a flush failed
+     */
+    private void flushAll() throws IOException {
+        freeze(0L);
+        awaitFlushes();
+    }
+
+    /**
+     * Waits for the flushes scheduled before the call.
+     *
+     * @throws IOException if a flush failed
+     */
+    private void awaitFlushes() throws IOException {
+        try {
+            flusher.submit(() -> {
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for flush");
+        } catch (ExecutionException e) {
+            throw new IOException("Can't flush", e.getCause());
+        }
+        checkFlushed();
+    }
+
+    /**
+     * Rejects changes once a flush failed, because FileTables written after it
+     * would be newer than the MemTable left unflushed.
+     *
+     * @throws IOException if a flush failed
+     */
+    private void checkFlushed() throws IOException {
+        final Exception failure = flushFailure;
+        if (failure != null) {
+            throw new IOException("Can't flush, the storage is read-only until reopening", failure);
+        }
+    }
+
+    /**
+     * Writes the cells to a new FileTable, which is yet to be added to the {@link Manifest}.
+     *
+     * @return the table or {@code null} if there are no cells
+     */
+    @Nullable
+    private FileTable write(
+            @NotNull final Iterator<Cell> cells,
+            final int generation,
+            final int level,
+            final int fileId) throws IOException {
+        if (!cells.hasNext()) {
+            return null;
+        }
+        final File dest = new File(base, fileName(fileId, level));
+        final long start = System.nanoTime();
+        final FileTable table;
+        try {
+            table = FileTable.create(cells, dest, generation, level, fileId, config);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(dest.toPath());
+            throw e;
+        }
+        final long size = table.sizeInBytes();
+        final long micros = Math.max(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start), 1L);
+        log.info("Wrote {} bytes to {} in {} ms, {} bytes/s",
+                size, dest.getName(), micros / 1000, size * 1_000_000 / micros);
+        return table;
+    }
+
+    /**
+     * Stores records sorted by key in new FileTables of {@link Config#getIngestFileSize()} bytes,
+     * bypassing the commit log and the MemTables, so every byte is written once.
+     * The tables are added atomically once all of them are written and nothing is added
+     * if the call fails. Compactions wait until the ingestion is over.
+     *
+     * <p>Ingested records are newer than everything written before the call and older
+     * than everything written after it. If no table holds keys of the ingested range,
+     * the tables go straight to the deepest level and are not merged with anything
+     * until newer data lands on top of them. Otherwise they are added to level 0 at the
+     * place in generation order the call started at.
+     *
+     * @param records records in strictly ascending order of keys, which must not be changed
+     * @throws IOException              if an I/O error occurred
+     * @throws IllegalArgumentException if the keys are not in ascending order
+     */
+    public void ingest(@NotNull final Iterator<Record> records) throws IOException {
+        if (!records.hasNext()) {
+            return;
+        }
+        final long start = System.nanoTime();
+        compactionLock.lock();
+        try {
+            // Data written from now on gets a newer MemTable, even if the current one is empty
+            acquireFlushPermit();
+            final int generation;
+            final long timestamp;
+            boolean scheduled = false;
+            lock.writeLock().lock();
+            try {
+                generation = nextGeneration.getAndIncrement();
+                timestamp = Value.reserve(1);
+                freezeLocked();
+                scheduled = true;
+            } finally {
+                lock.writeLock().unlock();
+                if (!scheduled) {
+                    flushPermits.release();
+                }
+            }
+
+            // Older MemTables must reach FileTables before the ingested ones, which are newer
+            awaitFlushes();
+
+            final List<FileTable> outputs = new ArrayList<>();
+            try {
+                final Iterator<Cell> cells = ascending(records, timestamp);
+                while (cells.hasNext()) {
+                    final int fileId = nextGeneration.getAndIncrement();
+                    outputs.add(write(limit(cells, config.getIngestFileSize()), generation, 0, fileId));
+                }
+                place(outputs);
+            } catch (IOException | RuntimeException e) {
+                for (final FileTable output : outputs) {
+                    Files.deleteIfExists(output.getPath());
+                }
+                throw e;
+            }
+
+            final List<Manifest.Entry> added = new ArrayList<>(outputs.size());
+            long bytes = 0L;
+            for (final FileTable output : outputs) {
+                added.add(output.getEntry());
+                bytes += output.sizeInBytes();
+            }
+            manifest.apply(added, List.of(), nextGeneration.get());
+            lock.writeLock().lock();
+            try {
+                tables = tables.compacted(List.of(), outputs);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            metrics.ingested(bytes);
+            log.info("Ingested {} bytes to {} FileTables of level {} in {} ms",
+                    bytes, outputs.size(), outputs.get(0).getLevel(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } finally {
+            compactionLock.unlock();
+        }
+        scheduleCompaction();
+    }
+
+    /**
+     * Sorts records which may not fit in the heap with an {@link ExternalSorter}
+     * and stores them like {@link #ingest(Iterator)} does.
+     * The last record of a key wins. Ingested records are newer than everything
+     * written before the sorted records are stored.
+     *
+     * @param records records in any order, which must not be changed
+     * @throws IOException if an I/O error occurred
+     */
+    public void ingestUnsorted(@NotNull final Iterator<Record> records) throws IOException {
+        try (ExternalSorter sorter = new ExternalSorter(base, config, nextGeneration::getAndIncrement)) {
+            ingest(Iterators.transform(
+                    sorter.sort(records),
+                    cell -> Record.of(cell.getKey(), cell.getValue().getData())));
+        }
+    }
+
+    @NotNull
+    private static Iterator<Cell> ascending(
+            @NotNull final Iterator<Record> records,
+            final long timestamp) {
+        return new AbstractIterator<>() {
+            private ByteBuffer last;
+
+            @Override
+            protected Cell computeNext() {
+                if (!records.hasNext()) {
+                    return endOfData();
+                }
+                final Record record = records.next();
+                final ByteBuffer key = record.getKey();
+                if (last != null && key.compareTo(last) <= 0) {
+                    throw new IllegalArgumentException("Keys are not in ascending order");
+                }
+                last = key;
+                return new Cell(key, new Value(timestamp, record.getValue()));
+            }
+        };
+    }
+
+    /**
+     * Moves freshly written FileTables of level 0 to the deepest level
+     * if neither a FileTable nor a frozen MemTable holds keys of their range.
+     * Runs while compactions wait, so only flushes may add tables meanwhile.
+     *
+     * @param written FileTables of level 0 in key order, replaced with the moved ones
+     * @throws IOException if an I/O error occurred
+     */
+    private void place(@NotNull final List<FileTable> written) throws IOException {
+        final ByteBuffer from = written.get(0).getMinKey();
+        final ByteBuffer to = written.get(written.size() - 1).getMaxKey();
+        final TableSet snapshot = tables;
+        int level = 1;
+        for (final FileTable file : snapshot.files) {
+            if (file.overlaps(from, to)) {
+                return;
+            }
+            level = Math.max(level, file.getLevel());
+        }
+        for (final MemTable frozen : snapshot.flushing) {
+            final Iterator<Cell> cells = frozen.iterator(from);
+            if (cells.hasNext() && cells.next().getKey().compareTo(to) <= 0) {
+                return;
+            }
+        }
+        for (int i = 0; i < written.size(); i++) {
+            final Manifest.Entry entry = written.get(i).getEntry().withLevel(level);
+            final File dest = new File(base, entry.fileName());
+            Files.move(written.get(i).getPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            written.set(i, new FileTable(dest, entry, config));
         }
     }
 
+    /**
+     * Merges all FileTables on the compaction thread and waits for the result.
+     */
     @Override
     public void compact() throws IOException {
-        final String res = flush(cellIterator(ByteBuffer.allocate(0)));
-        fileTables.forEach(fileTable -> {
+        flushAll();
+        try {
+            compactor.submit(() -> {
+                final List<FileTable> files = tables.files;
+                if (!files.isEmpty()) {
+                    compact(Compaction.merge(files));
+                }
+                return null;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for compaction");
+        } catch (ExecutionException e) {
+            throw new IOException("Can't compact", e.getCause());
+        }
+    }
+
+    private void scheduleCompaction() {
+        if (closed || !compactionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            compactor.execute(this::compactInBackground);
+        } catch (RejectedExecutionException e) {
+            // Closed concurrently
+            compactionScheduled.set(false);
+        }
+    }
+
+    private void compactInBackground() {
+        compactionScheduled.set(false);
+        try {
+            Compaction compaction = compactionStrategy.select(tables.files, compactionCursors);
+            while (!closed && compaction != null) {
+                compact(compaction);
+                compaction = compactionStrategy.select(tables.files, compactionCursors);
+            }
+        } catch (CancellationException e) {
+            log.info("Compaction is cancelled");
+        } catch (IOException e) {
+            log.error("Can't compact", e);
+        }
+    }
+
+    /**
+     * Replaces FileTables with their merge.
+     * Runs on the compaction thread only, while reads and writes continue.
+     *
+     * @param compaction FileTables to merge and the level of the result
+     * @throws IOException if an I/O error occurred
+     */
+    private void compact(@NotNull final Compaction compaction) throws IOException {
+        compactionLock.lock();
+        try {
+            compactLocked(compaction);
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    private void compactLocked(@NotNull final Compaction compaction) throws IOException {
+        final long start = System.nanoTime();
+        final List<FileTable> inputs = new ArrayList<>(compaction.getInputs());
+        inputs.sort(TableSet.ORDER);
+        final Collection<Iterator<Cell>> iterators = new ArrayList<>(inputs.size());
+        long bytesRead = 0L;
+        for (final FileTable fileTable : inputs) {
+            iterators.add(fileTable.scan());
+            bytesRead += fileTable.sizeInBytes();
+        }
+        Iterator<Cell> cells = throttle(Cell.merge(iterators));
+
+        // Tombstones may be dropped only if no older table may contain the keys they remove
+        if (isOldest(tables.files, inputs)) {
+            cells = Iterators.filter(cells, cell -> !cell.getValue().isRemoved());
+        }
+
+        final int level = compaction.getOutputLevel();
+        final List<FileTable> outputs = new ArrayList<>();
+        if (level == 0) {
+            // The result takes the place of the oldest input in generation order
+            final FileTable output = write(cells, inputs.get(0).getGeneration(), 0, nextGeneration.getAndIncrement());
+            if (output != null) {
+                outputs.add(output);
+            }
+        } else {
+            while (cells.hasNext()) {
+                final int generation = nextGeneration.getAndIncrement();
+                outputs.add(write(limit(cells, compaction.getMaxFileSize()), generation, level, generation));
+            }
+        }
+        final List<Manifest.Entry> added = new ArrayList<>(outputs.size());
+        long bytesWritten = 0L;
+        for (final FileTable output : outputs) {
+            added.add(output.getEntry());
+            bytesWritten += output.sizeInBytes();
+        }
+        final List<Manifest.Entry> removed = new ArrayList<>(inputs.size());
+        for (final FileTable input : inputs) {
+            removed.add(input.getEntry());
+        }
+        manifest.apply(added, removed, nextGeneration.get());
+        lock.writeLock().lock();
+        try {
+            tables = tables.compacted(inputs, outputs);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        // Inputs stay served from the cache until the manifest no longer lists them,
+        // then are mapped before deletion, so that readers still seeing them are served.
+        // Inputs left by a crash are no longer listed and get removed on startup
+        for (final FileTable fileTable : inputs) {
+            fileTable.retire();
+            Files.delete(fileTable.getPath());
+        }
+        metrics.compacted(System.nanoTime() - start, bytesRead, bytesWritten);
+    }
+
+    /**
+     * Verifies checksums of all FileTables, which may be replaced meanwhile.
+     *
+     * @param limiter limits the rate of read bytes
+     */
+    private void scrub(@NotNull final RateLimiter limiter) {
+        final long start = System.nanoTime();
+        final List<FileTable> files = tables.files;
+        long bytes = 0L;
+        for (final FileTable file : files) {
             try {
-                Files.delete(fileTable.getPath());
+                file.verify(size -> {
+                    if (closed) {
+                        throw new CancellationException("Storage is closed");
+                    }
+                    limiter.acquire(Math.max(size, 1));
+                });
+                metrics.scrubbed(file.sizeInBytes());
+                bytes += file.sizeInBytes();
+            } catch (CancellationException e) {
+                return;
+            } catch (CorruptionException e) {
+                metrics.corrupted();
+                log.error("Corrupted FileTable", e);
             } catch (IOException e) {
-                e.printStackTrace();
+                // Files of compacted tables are deleted
+                if (tables.files.contains(file)) {
+                    log.error("Can't verify " + file.getPath(), e);
+                }
+            }
+        }
+        log.info("Verified {} bytes of {} FileTables in {} ms",
+                bytes, files.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private static boolean isOldest(
+            @NotNull final List<FileTable> files,
+            @NotNull final List<FileTable> inputs) {
+        ByteBuffer from = inputs.get(0).getMinKey();
+        ByteBuffer to = inputs.get(0).getMaxKey();
+        for (final FileTable input : inputs) {
+            if (input.getMinKey().compareTo(from) < 0) {
+                from = input.getMinKey();
+            }
+            if (input.getMaxKey().compareTo(to) > 0) {
+                to = input.getMaxKey();
             }
-        });
-        fileTables = new ArrayList<>();
-        if (!res.isEmpty()) {
-            fileTables.add(new FileTable(new File(res)));
-            memTable = new MemTable();
         }
+        for (final FileTable file : files) {
+            if (file == inputs.get(0)) {
+                return true;
+            }
+            if (!inputs.contains(file) && file.overlaps(from, to)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Iterator<Cell> limit(
+            @NotNull final Iterator<Cell> cells,
+            final long maxBytes) {
+        return new AbstractIterator<>() {
+            private long bytes;
+
+            @Override
+            protected Cell computeNext() {
+                if (bytes >= maxBytes || !cells.hasNext()) {
+                    return endOfData();
+                }
+                final Cell cell = cells.next();
+                bytes += sizeOf(cell);
+                return cell;
+            }
+        };
+    }
+
+    private static long sizeOf(@NotNull final Cell cell) {
+        final Value value = cell.getValue();
+        return Integer.BYTES * 2 + Long.BYTES + cell.getKey().remaining()
+                + (value.isRemoved() ? 0 : value.getData().remaining());
+    }
+
+    private Iterator<Cell> throttle(@NotNull final Iterator<Cell> cells) {
+        return Iterators.transform(cells, cell -> {
+            if (closed) {
+                throw new CancellationException("Storage is closed");
+            }
+            if (compactionLimiter != null) {
+                compactionLimiter.acquire((int) Math.min(sizeOf(cell), Integer.MAX_VALUE));
+            }
+            return cell;
+        });
     }
 
     @Override
     public DAO snapshot() throws IOException {
-        flush(memTable.iterator(ByteBuffer.allocate(0)));
+        flushAll();
+        final File snapshot;
+        lock.writeLock().lock();
+        try {
+            snapshot = link(tables.files);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return DAOFactory.create(snapshot, true);
+    }
+
+    private File link(@NotNull final Collection<FileTable> files) throws IOException {
         final String snapshotPath = base.getPath() + "/snapshot" + snapshots.size();
         snapshots.add(snapshotPath);
         if (!new File(snapshotPath).mkdir()) {
             throw new IOException("Ошибка создания новой папки для снапшота");
         }
-        Files.walkFileTree(
-                base.toPath(),
-                EnumSet.of(FileVisitOption.FOLLOW_LINKS),
-                1,
-                new SimpleFileVisitor<>() {
-                    @Override
-                    public FileVisitResult visitFile(
-                            final Path path,
-                            final BasicFileAttributes attrs) throws IOException {
-                        final String fileName = path.getFileName().toString();
-                        if (fileName.endsWith(SUFFIX)
-                                && fileName.startsWith(PREFIX)) {
-                            Files.createLink(Path.of(snapshotPath + "/" + fileName), path);
-                        }
-                        return FileVisitResult.CONTINUE;
-                    }
-                });
-
-        return DAOFactory.create(new File(snapshotPath), true);
+        final List<Manifest.Entry> entries = new ArrayList<>(files.size());
+        for (final FileTable fileTable : files) {
+            final Path path = fileTable.getPath();
+            Files.createLink(Path.of(snapshotPath, path.getFileName().toString()), path);
+            entries.add(fileTable.getEntry());
+        }
+        Manifest.create(new File(snapshotPath), entries, nextGeneration.get()).close();
+        return new File(snapshotPath);
     }
 
     @Override
     public void close() throws IOException {
-        flush(memTable.iterator(ByteBuffer.allocate(0)));
+        freeze(0L);
+        closed = true;
+        flusher.shutdown();
+        compactor.shutdown();
+        if (scrubber != null) {
+            scrubber.shutdownNow();
+        }
+        try {
+            if (!flusher.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Flusher didn't stop in time");
+            }
+            if (!compactor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Compactor didn't stop in time");
+            }
+            if (scrubber != null && !scrubber.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Scrubber didn't stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for flush");
+        }
+        commitLog.close();
+        manifest.close();
+        for (final FileTable fileTable : tables.files) {
+            fileTable.evict();
+        }
+        if (config.getMemoryBudget() != null && !isSnapshot) {
+            config.getMemoryBudget().close();
+        }
+        if (mxBeanName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(mxBeanName);
+            } catch (JMException e) {
+                log.warn("Can't unregister metrics of " + base, e);
+            }
+        }
         if (isSnapshot) {
             for (final String child : base.list()) {
                 Files.delete(Paths.get(base + "/" + child));
@@ -0,0 +1,162 @@
+package ru.mail.polis.prohladenn;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps FileTables in levels of exponentially growing size.
+ *
+ * <p>Flushed tables land in level 0 and may overlap. Once there are
+ * {@code level0Threshold} of them, all are merged with the overlapping tables
+ * of level 1. Tables of the deeper levels have disjoint key ranges, so a key
+ * is stored in at most one table per level. Once a level outgrows its target
+ * size, which is {@code sizeRatio} times the target of the previous level,
+ * one of its tables is merged with the overlapping tables of the next level.
+ * Tables of a level are picked in turn over the key space, starting after the
+ * last key merged from the level, which the storage keeps. The results are
+ * split into tables of about {@code maxFileSize} bytes.
+ *
+ * <p>Every byte is rewritten about {@code sizeRatio} times per level, which
+ * costs more writes than {@link SizeTieredStrategy} but keeps reads cheap.
+ */
+public final class LeveledStrategy implements CompactionStrategy {
+    private final int level0Threshold;
+    private final long level1Size;
+    private final int sizeRatio;
+    private final long maxFileSize;
+
+    /**
+     * Creates the strategy.
+     *
+     * @param level0Threshold number of tables in level 0 that triggers a compaction
+     * @param level1Size      target size of level 1 in bytes
+     * @param sizeRatio       ratio between target sizes of the neighbouring levels
+     * @param maxFileSize     size of the resulting tables in bytes
+     */
+    public LeveledStrategy(
+            final int level0Threshold,
+            final long level1Size,
+            final int sizeRatio,
+            final long maxFileSize) {
+        if (level0Threshold < 1) {
+            throw new IllegalArgumentException("Non-positive level 0 threshold: " + level0Threshold);
+        }
+        if (level1Size <= 0L || maxFileSize <= 0L) {
+            throw new IllegalArgumentException(
+                    "Non-positive sizes: level 1 " + level1Size + ", file " + maxFileSize);
+        }
+        if (sizeRatio < 2) {
+            throw new IllegalArgumentException("Size ratio must be at least 2: " + sizeRatio);
+        }
+        this.level0Threshold = level0Threshold;
+        this.level1Size = level1Size;
+        this.sizeRatio = sizeRatio;
+        this.maxFileSize = maxFileSize;
+    }
+
+    @Nullable
+    @Override
+    public Compaction select(@NotNull final List<FileTable> files) {
+        return select(files, new HashMap<>());
+    }
+
+    @Nullable
+    @Override
+    public Compaction select(
+            @NotNull final List<FileTable> files,
+            @NotNull final Map<Integer, ByteBuffer> cursors) {
+        final List<List<FileTable>> levels = new ArrayList<>();
+        for (final FileTable file : files) {
+            while (levels.size() <= file.getLevel()) {
+                levels.add(new ArrayList<>());
+            }
+            levels.get(file.getLevel()).add(file);
+        }
+        if (levels.isEmpty()) {
+            return null;
+        }
+
+        // Find the level which is the most over its target
+        int best = -1;
+        double bestScore = 1.0;
+        final double level0Score = (double) levels.get(0).size() / level0Threshold;
+        if (level0Score >= bestScore) {
+            best = 0;
+            bestScore = level0Score;
+        }
+        double target = level1Size;
+        for (int level = 1; level < levels.size(); level++) {
+            final double score = sizeOf(levels.get(level)) / target;
+            if (score > bestScore) {
+                best = level;
+                bestScore = score;
+            }
+            target *= sizeRatio;
+        }
+        if (best < 0) {
+            return null;
+        }
+
+        // Tables of level 0 overlap, so all of them go down together
+        final List<FileTable> upper = best == 0
+                ? levels.get(0)
+                : Collections.singletonList(next(levels.get(best), cursors, best));
+        ByteBuffer from = upper.get(0).getMinKey();
+        ByteBuffer to = upper.get(0).getMaxKey();
+        for (final FileTable file : upper) {
+            if (file.getMinKey().compareTo(from) < 0) {
+                from = file.getMinKey();
+            }
+            if (file.getMaxKey().compareTo(to) > 0) {
+                to = file.getMaxKey();
+            }
+        }
+        final List<FileTable> inputs = new ArrayList<>();
+        if (best + 1 < levels.size()) {
+            for (final FileTable file : levels.get(best + 1)) {
+                if (file.overlaps(from, to)) {
+                    inputs.add(file);
+                }
+            }
+        }
+        inputs.addAll(upper);
+        return new Compaction(inputs, best + 1, maxFileSize);
+    }
+
+    /**
+     * Picks the table following the previously compacted one of the level.
+     */
+    @NotNull
+    private static FileTable next(
+            @NotNull final List<FileTable> files,
+            @NotNull final Map<Integer, ByteBuffer> cursors,
+            final int level) {
+        final ByteBuffer cursor = cursors.get(level);
+        FileTable result = files.get(0);
+        if (cursor != null) {
+            for (final FileTable file : files) {
+                if (file.getMinKey().compareTo(cursor) > 0) {
+                    result = file;
+                    break;
+                }
+            }
+        }
+        cursors.put(level, result.getMaxKey());
+        return result;
+    }
+
+    private static double sizeOf(@NotNull final List<FileTable> files) {
+        long size = 0L;
+        for (final FileTable file : files) {
+            size += file.sizeInBytes();
+        }
+        return size;
+    }
+}
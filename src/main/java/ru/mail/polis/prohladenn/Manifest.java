@@ -0,0 +1,400 @@
+package ru.mail.polis.prohladenn;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of changes to the set of {@link FileTable}s of a storage.
+ *
+ * <p>The file starts with {@code [long magic][int version]} followed by edits
+ * {@code [int size][int crc32c][payload]}. An edit records the next free
+ * generation, a timestamp not older than any value of the tables, the identifiers
+ * of removed files and the entries of added ones, so a flush or a compaction is
+ * applied with a single forced append.
+ * A torn edit at the end is the one a crash interrupted and is ignored.
+ *
+ * <p>Opening advances the clock of {@link Value}s past the recorded timestamp,
+ * so new writes are newer than the stored ones even if the wall clock stepped back.
+ * Tables recovered without a manifest have no recorded timestamp,
+ * so the modification times of their files are used.
+ *
+ * <p>Opening and closing rewrite the file as a single edit adding the live
+ * tables, renaming the new file over the old one.
+ * Files of the folder the manifest doesn't refer to are not tables,
+ * whatever their names are.
+ */
+final class Manifest implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(Manifest.class);
+
+    static final String NAME = "MANIFEST";
+    static final long NO_CHECKSUM = -1L;
+
+    private static final String TEMP = NAME + ".tmp";
+    private static final long MAGIC = 0x4C534D4D616E6966L;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = Long.BYTES + Integer.BYTES;
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES * 2;
+
+    // Edits appended before the file is rewritten with the live tables only
+    private static final int MAX_EDITS = 1024;
+
+    // Timestamps may run ahead of the wall clock when many are taken within a millisecond
+    private static final long CLOCK_MARGIN = TimeUnit.SECONDS.toNanos(1);
+
+    private final File base;
+    private final Map<Integer, Entry> live;
+    private FileChannel channel;
+    private int nextGeneration;
+    private long timestamp;
+    private int edits;
+
+    private Manifest(
+            @NotNull final File base,
+            @NotNull final Map<Integer, Entry> live,
+            final int nextGeneration) {
+        this.base = base;
+        this.live = live;
+        this.nextGeneration = nextGeneration;
+    }
+
+    static boolean exists(@NotNull final File base) {
+        return new File(base, NAME).exists();
+    }
+
+    /**
+     * Replays the manifest of the folder.
+     *
+     * @param base folder of the storage
+     * @return the manifest open for appending
+     * @throws IOException if an I/O error occurred or the manifest is corrupted
+     */
+    @NotNull
+    static Manifest open(@NotNull final File base) throws IOException {
+        final Path path = new File(base, NAME).toPath();
+        final ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (file.remaining() < HEADER_SIZE || file.getLong() != MAGIC) {
+            throw new IOException("Not a manifest: " + path);
+        }
+        final int version = file.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version " + version + " of " + path);
+        }
+
+        final Manifest manifest = new Manifest(base, new LinkedHashMap<>(), 0);
+        final CRC32C crc = new CRC32C();
+        while (file.remaining() >= RECORD_HEADER_SIZE) {
+            final int size = file.getInt();
+            final int checksum = file.getInt();
+            if (size < 0 || size > file.remaining()) {
+                log.warn("Torn edit at {}:{}", path, file.position() - RECORD_HEADER_SIZE);
+                break;
+            }
+            final ByteBuffer payload = file.slice();
+            payload.limit(size);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                log.warn("Corrupted edit at {}:{}", path, file.position() - RECORD_HEADER_SIZE);
+                break;
+            }
+            file.position(file.position() + size);
+            manifest.replay(payload);
+        }
+        Value.advance(manifest.timestamp);
+
+        // Compacts the edits and drops a torn tail
+        manifest.rewrite();
+        return manifest;
+    }
+
+    /**
+     * Creates the manifest listing the tables, replacing an existing one.
+     *
+     * @param base           folder of the storage
+     * @param entries        tables of the storage
+     * @param nextGeneration generation not used by any table or commit log segment
+     * @return the manifest open for appending
+     * @throws IOException if an I/O error occurred
+     */
+    @NotNull
+    static Manifest create(
+            @NotNull final File base,
+            @NotNull final Collection<Entry> entries,
+            final int nextGeneration) throws IOException {
+        final Map<Integer, Entry> live = new LinkedHashMap<>();
+        for (final Entry entry : entries) {
+            live.put(entry.fileId, entry);
+        }
+        Value.advance(lastModified(base, entries));
+        final Manifest manifest = new Manifest(base, live, nextGeneration);
+        manifest.rewrite();
+        return manifest;
+    }
+
+    /**
+     * Returns a timestamp newer than the values of the tables judging by modification times of their files.
+     */
+    private static long lastModified(
+            @NotNull final File base,
+            @NotNull final Collection<Entry> entries) {
+        long result = 0L;
+        for (final Entry entry : entries) {
+            final long millis = new File(base, entry.fileName()).lastModified();
+            result = Math.max(result, TimeUnit.MILLISECONDS.toNanos(millis) + CLOCK_MARGIN);
+        }
+        return result;
+    }
+
+    private void replay(@NotNull final ByteBuffer edit) {
+        nextGeneration = Math.max(nextGeneration, edit.getInt());
+        timestamp = Math.max(timestamp, edit.getLong());
+        final int removed = edit.getInt();
+        for (int i = 0; i < removed; i++) {
+            live.remove(edit.getInt());
+        }
+        final int added = edit.getInt();
+        for (int i = 0; i < added; i++) {
+            final Entry entry = Entry.read(edit);
+            live.put(entry.fileId, entry);
+        }
+    }
+
+    @NotNull
+    synchronized List<Entry> getEntries() {
+        return Collections.unmodifiableList(new ArrayList<>(live.values()));
+    }
+
+    synchronized int getNextGeneration() {
+        return nextGeneration;
+    }
+
+    /**
+     * Durably records replacement of tables.
+     * Files of the added tables must be written and forced already.
+     *
+     * @param added          entries of the new tables
+     * @param removed        entries of the replaced tables
+     * @param nextGeneration generation not used by any table or commit log segment
+     * @throws IOException if an I/O error occurred
+     */
+    synchronized void apply(
+            @NotNull final Collection<Entry> added,
+            @NotNull final Collection<Entry> removed,
+            final int nextGeneration) throws IOException {
+        // Directory entries of the added files are persisted before the edit refers to them
+        syncDirectory(base);
+        append(channel, encode(added, removed, nextGeneration));
+        channel.force(false);
+        this.nextGeneration = Math.max(this.nextGeneration, nextGeneration);
+        for (final Entry entry : removed) {
+            live.remove(entry.fileId);
+        }
+        for (final Entry entry : added) {
+            live.put(entry.fileId, entry);
+        }
+        if (++edits >= MAX_EDITS) {
+            rewrite();
+        }
+    }
+
+    /**
+     * Writes the live tables to a new file and atomically replaces the current one.
+     */
+    private void rewrite() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        final Path temp = new File(base, TEMP).toPath();
+        try (FileChannel fc = FileChannel.open(
+                temp,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putLong(MAGIC).putInt(VERSION).flip();
+            fc.write(header);
+            append(fc, encode(live.values(), Collections.emptyList(), nextGeneration));
+            fc.force(true);
+        }
+        final Path path = new File(base, NAME).toPath();
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(base);
+        channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        edits = 0;
+    }
+
+    private static void append(
+            @NotNull final FileChannel fc,
+            @NotNull final ByteBuffer payload) throws IOException {
+        final CRC32C crc = new CRC32C();
+        crc.update(payload.duplicate());
+        final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        header.putInt(payload.remaining()).putInt((int) crc.getValue()).flip();
+        final ByteBuffer[] record = {header, payload};
+        while (payload.hasRemaining()) {
+            fc.write(record);
+        }
+    }
+
+    @NotNull
+    private static ByteBuffer encode(
+            @NotNull final Collection<Entry> added,
+            @NotNull final Collection<Entry> removed,
+            final int nextGeneration) {
+        int size = Integer.BYTES * 3 + Long.BYTES + Integer.BYTES * removed.size();
+        for (final Entry entry : added) {
+            size += entry.size();
+        }
+        final ByteBuffer result = ByteBuffer.allocate(size);
+        result.putInt(nextGeneration);
+        result.putLong(Value.last());
+        result.putInt(removed.size());
+        for (final Entry entry : removed) {
+            result.putInt(entry.fileId);
+        }
+        result.putInt(added.size());
+        for (final Entry entry : added) {
+            entry.write(result);
+        }
+        result.flip();
+        return result;
+    }
+
+    /**
+     * Forces creations, renames and removals of files in the folder to disk.
+     * Not every platform can open a folder, where this is left to the file system.
+     */
+    static void syncDirectory(@NotNull final File dir) {
+        try (FileChannel fc = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            fc.force(true);
+        } catch (IOException e) {
+            log.debug("Can't sync {}", dir, e);
+        }
+    }
+
+    /**
+     * Rewrites the manifest if it was appended to and closes it,
+     * so that a closed storage keeps its tables in a single edit.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (edits > 0) {
+            rewrite();
+        }
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Description of a table: its place among the others, its file and its key range.
+     */
+    static final class Entry {
+        final int generation;
+        final int level;
+        final int fileId;
+        final long size;
+        final long checksum;
+        final ByteBuffer minKey;
+        final ByteBuffer maxKey;
+
+        /**
+         * Describes the table.
+         *
+         * @param generation generation of the table, which orders tables of level 0
+         * @param level      level of the table
+         * @param fileId     unique number the file is named after
+         * @param size       size of the file in bytes
+         * @param checksum   CRC32C of the file or {@link #NO_CHECKSUM}
+         * @param minKey     the first key of the table
+         * @param maxKey     the last key of the table
+         */
+        Entry(
+                final int generation,
+                final int level,
+                final int fileId,
+                final long size,
+                final long checksum,
+                @NotNull final ByteBuffer minKey,
+                @NotNull final ByteBuffer maxKey) {
+            this.generation = generation;
+            this.level = level;
+            this.fileId = fileId;
+            this.size = size;
+            this.checksum = checksum;
+            this.minKey = minKey;
+            this.maxKey = maxKey;
+        }
+
+        /**
+         * Returns the name of the file, which is the generation and the level
+         * the table had when it was written.
+         */
+        @NotNull
+        String fileName() {
+            return LSMDao.fileName(fileId, level);
+        }
+
+        /**
+         * Describes the same table moved to another level, whose file is named after it.
+         */
+        @NotNull
+        Entry withLevel(final int level) {
+            return new Entry(generation, level, fileId, size, checksum, minKey, maxKey);
+        }
+
+        private int size() {
+            return Integer.BYTES * 5 + Long.BYTES * 2 + minKey.remaining() + maxKey.remaining();
+        }
+
+        private void write(@NotNull final ByteBuffer to) {
+            to.putInt(generation);
+            to.putInt(level);
+            to.putInt(fileId);
+            to.putLong(size);
+            to.putLong(checksum);
+            to.putInt(minKey.remaining());
+            to.put(minKey.duplicate());
+            to.putInt(maxKey.remaining());
+            to.put(maxKey.duplicate());
+        }
+
+        @NotNull
+        private static Entry read(@NotNull final ByteBuffer from) {
+            final int generation = from.getInt();
+            final int level = from.getInt();
+            final int fileId = from.getInt();
+            final long size = from.getLong();
+            final long checksum = from.getLong();
+            final ByteBuffer minKey = readKey(from);
+            final ByteBuffer maxKey = readKey(from);
+            return new Entry(generation, level, fileId, size, checksum, minKey, maxKey);
+        }
+
+        @NotNull
+        private static ByteBuffer readKey(@NotNull final ByteBuffer from) {
+            final byte[] key = new byte[from.getInt()];
+            from.get(key);
+            return ByteBuffer.wrap(key);
+        }
+    }
+}
@@ -1,48 +1,40 @@
 package ru.mail.polis.prohladenn;
 
-import com.google.common.collect.Iterators;
 import org.jetbrains.annotations.NotNull;
 
 import java.nio.ByteBuffer;
-import java.util.Iterator;
-import java.util.SortedMap;
-import java.util.TreeMap;
-
-public final class MemTable implements Table {
-    private final SortedMap<ByteBuffer, Value> map = new TreeMap<>();
-    private long sizeInBytes;
-
-    public long sizeInBytes() {
-        return sizeInBytes;
-    }
 
+/**
+ * Sorted in-memory table taking writes until it is flushed to a {@link FileTable}.
+ */
+public abstract class MemTable implements Table {
+    /**
+     * Creates an empty MemTable of the kind chosen by {@link Config.Builder#offHeapMemTables(boolean)}.
+     */
     @NotNull
-    @Override
-    public Iterator<Cell> iterator(@NotNull final ByteBuffer from) {
-        return Iterators.transform(
-                map.tailMap(from).entrySet().iterator(),
-                e -> new Cell(e.getKey(), e.getValue()));
+    static MemTable create(@NotNull final Config config) {
+        return config.isOffHeapMemTables() ? new OffHeapMemTable() : new HeapMemTable();
     }
 
+    abstract boolean isEmpty();
+
     @Override
     public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) {
-        final Value previous = map.put(key, Value.of(value));
-        if (previous == null) {
-            sizeInBytes += key.remaining() + value.remaining();
-        } else if (previous.isRemoved()) {
-            sizeInBytes += value.remaining();
-        } else {
-            sizeInBytes += value.remaining() - previous.getData().remaining();
-        }
+        put(key, Value.of(value));
     }
 
     @Override
     public void remove(@NotNull final ByteBuffer key) {
-        final Value previous = map.put(key, Value.tombstone());
-        if (previous == null) {
-            sizeInBytes += key.remaining();
-        } else if (!previous.isRemoved()) {
-            sizeInBytes -= previous.getData().remaining();
-        }
+        put(key, Value.tombstone());
     }
+
+    /**
+     * Stores already timestamped value, e.g. replayed from {@link CommitLog}.
+     * Safe to call concurrently: the value with the latest timestamp wins
+     * regardless of the order the calls complete in.
+     *
+     * @param key   key of the cell
+     * @param value new value or tombstone
+     */
+    abstract void put(@NotNull ByteBuffer key, @NotNull Value value);
 }
@@ -0,0 +1,121 @@
+package ru.mail.polis.prohladenn;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Heap given to {@link LSMDao}s for buffering writes and caching blocks.
+ *
+ * <p>The budget is shared by all storages configured with the same instance: they use a single
+ * block cache, and the MemTable share is divided among the open storages. Snapshots only
+ * read, so they use the block cache but don't take a part of the MemTable share.
+ * The part of a storage covers its active MemTable and all the frozen ones
+ * waiting for the flush, so the flush threshold is that part divided among them
+ * and shrinks as more storages are opened. MemTable sizes account for the object
+ * overhead, so the budget is what they really retain and may take a large part of the heap.
+ */
+public final class MemoryBudget {
+    private static final double MEM_TABLE_SHARE = 0.25;
+    private static final double BLOCK_CACHE_SHARE = 1.0 / 16;
+
+    private final long memTables;
+    private final long blockCache;
+    private final AtomicInteger storages = new AtomicInteger();
+    private BlockCache cache;
+
+    /**
+     * Creates the budget.
+     *
+     * @param memTables  bytes for all MemTables
+     * @param blockCache bytes for the block cache or {@code 0} to disable it
+     */
+    public MemoryBudget(
+            final long memTables,
+            final long blockCache) {
+        if (memTables <= 0L) {
+            throw new IllegalArgumentException("Non-positive MemTable budget: " + memTables);
+        }
+        if (blockCache < 0L) {
+            throw new IllegalArgumentException("Negative block cache budget: " + blockCache);
+        }
+        this.memTables = memTables;
+        this.blockCache = blockCache;
+    }
+
+    /**
+     * Creates a budget of a quarter of the maximal heap for MemTables
+     * and a sixteenth of it for the block cache.
+     * Every call returns a new budget, so storages share one only if given the same instance.
+     */
+    public static MemoryBudget ofHeap() {
+        return ofHeap(MEM_TABLE_SHARE, BLOCK_CACHE_SHARE);
+    }
+
+    /**
+     * Splits the maximal heap.
+     *
+     * @param memTableShare   share of the heap for all MemTables
+     * @param blockCacheShare share of the heap for the block cache
+     * @return the budget
+     */
+    public static MemoryBudget ofHeap(
+            final double memTableShare,
+            final double blockCacheShare) {
+        if (memTableShare + blockCacheShare > 1.0) {
+            throw new IllegalArgumentException("Shares exceed the heap: " + memTableShare + " + " + blockCacheShare);
+        }
+        final long heap = Runtime.getRuntime().maxMemory();
+        return new MemoryBudget((long) (heap * memTableShare), (long) (heap * blockCacheShare));
+    }
+
+    public long getMemTables() {
+        return memTables;
+    }
+
+    public long getBlockCache() {
+        return blockCache;
+    }
+
+    /**
+     * Returns the block cache of all storages using the budget, created on the first call.
+     *
+     * @return the cache or {@code null} if the budget has none
+     */
+    @Nullable
+    synchronized BlockCache getCache() {
+        if (cache == null && blockCache != 0L) {
+            cache = new BlockCache(blockCache, false);
+        }
+        return cache;
+    }
+
+    /**
+     * Counts a storage opened with the budget.
+     */
+    void open() {
+        storages.incrementAndGet();
+    }
+
+    /**
+     * Returns the part of a storage closed with the budget to the others.
+     */
+    void close() {
+        storages.decrementAndGet();
+    }
+
+    public int getStorages() {
+        return storages.get();
+    }
+
+    /**
+     * Returns the flush threshold keeping the active and the frozen MemTables
+     * of every open storage within its part of the budget.
+     *
+     * @param maxImmutableMemTables limit of frozen MemTables
+     * @return threshold in bytes
+     */
+    public long flushThreshold(final int maxImmutableMemTables) {
+        return memTables / Math.max(storages.get(), 1) / (maxImmutableMemTables + 1);
+    }
+}
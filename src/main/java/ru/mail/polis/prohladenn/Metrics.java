@@ -0,0 +1,320 @@
+package ru.mail.polis.prohladenn;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.LatencyHistogram;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Operational statistics of {@link LSMDao}.
+ *
+ * <p>Events are counted with striped adders and lock-free histograms, so the
+ * hot paths never block on them. Table statistics are computed on request
+ * from the current {@link TableSet}.
+ */
+public final class Metrics implements MetricsMXBean {
+    private final Supplier<TableSet> tables;
+    private final BlockCache cache;
+    private final TableCache tableCache;
+
+    private final LatencyHistogram getLatency = new LatencyHistogram();
+    private final LatencyHistogram upsertLatency = new LatencyHistogram();
+    private final LatencyHistogram removeLatency = new LatencyHistogram();
+    private final LatencyHistogram iteratorLatency = new LatencyHistogram();
+    private final LatencyHistogram batchLatency = new LatencyHistogram();
+
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushNanos = new LongAdder();
+    private final LongAdder flushedBytes = new LongAdder();
+    private final LongAdder compactions = new LongAdder();
+    private final LongAdder compactionNanos = new LongAdder();
+    private final LongAdder compactionBytesRead = new LongAdder();
+    private final LongAdder compactionBytesWritten = new LongAdder();
+    private final LongAdder tombstonesScanned = new LongAdder();
+    private final LongAdder bloomNegatives = new LongAdder();
+    private final LongAdder bloomFalsePositives = new LongAdder();
+    private final LongAdder blocksRead = new LongAdder();
+    private final LongAdder corruptions = new LongAdder();
+    private final LongAdder scrubbedBytes = new LongAdder();
+    private final LongAdder ingestedBytes = new LongAdder();
+
+    Metrics(
+            @NotNull final Supplier<TableSet> tables,
+            @Nullable final BlockCache cache,
+            @NotNull final TableCache tableCache) {
+        this.tables = tables;
+        this.cache = cache;
+        this.tableCache = tableCache;
+    }
+
+    void flushed(
+            final long nanos,
+            final long bytes) {
+        flushes.increment();
+        flushNanos.add(nanos);
+        flushedBytes.add(bytes);
+    }
+
+    void compacted(
+            final long nanos,
+            final long bytesRead,
+            final long bytesWritten) {
+        compactions.increment();
+        compactionNanos.add(nanos);
+        compactionBytesRead.add(bytesRead);
+        compactionBytesWritten.add(bytesWritten);
+    }
+
+    void ingested(final long bytes) {
+        ingestedBytes.add(bytes);
+    }
+
+    void tombstoneScanned() {
+        tombstonesScanned.increment();
+    }
+
+    void bloomNegative() {
+        bloomNegatives.increment();
+    }
+
+    void blockRead() {
+        blocksRead.increment();
+    }
+
+    void bloomFalsePositive() {
+        bloomFalsePositives.increment();
+    }
+
+    void corrupted() {
+        corruptions.increment();
+    }
+
+    void scrubbed(final long bytes) {
+        scrubbedBytes.add(bytes);
+    }
+
+    @NotNull
+    @Override
+    public LatencyHistogram getGetLatency() {
+        return getLatency;
+    }
+
+    @NotNull
+    @Override
+    public LatencyHistogram getUpsertLatency() {
+        return upsertLatency;
+    }
+
+    @NotNull
+    @Override
+    public LatencyHistogram getRemoveLatency() {
+        return removeLatency;
+    }
+
+    /**
+     * Returns latencies of opening iterators, which don't include iterating.
+     */
+    @NotNull
+    @Override
+    public LatencyHistogram getIteratorLatency() {
+        return iteratorLatency;
+    }
+
+    /**
+     * Returns latencies of writing whole batches.
+     */
+    @NotNull
+    @Override
+    public LatencyHistogram getBatchLatency() {
+        return batchLatency;
+    }
+
+    /**
+     * Returns the size of the active and the frozen MemTables.
+     */
+    @Override
+    public long getMemTableBytes() {
+        final TableSet snapshot = tables.get();
+        long result = snapshot.memTable.sizeInBytes();
+        for (final MemTable frozen : snapshot.flushing) {
+            result += frozen.sizeInBytes();
+        }
+        return result;
+    }
+
+    @Override
+    public int getFrozenMemTables() {
+        return tables.get().flushing.size();
+    }
+
+    @Override
+    public int getFileCount() {
+        return tables.get().files.size();
+    }
+
+    /**
+     * Returns numbers of FileTables indexed by level.
+     */
+    @NotNull
+    @Override
+    public int[] getFilesPerLevel() {
+        int[] result = new int[1];
+        for (final FileTable file : tables.get().files) {
+            if (file.getLevel() >= result.length) {
+                result = Arrays.copyOf(result, file.getLevel() + 1);
+            }
+            result[file.getLevel()]++;
+        }
+        return result;
+    }
+
+    /**
+     * Returns sizes of FileTables indexed by level.
+     */
+    @NotNull
+    @Override
+    public long[] getBytesPerLevel() {
+        long[] result = new long[1];
+        for (final FileTable file : tables.get().files) {
+            if (file.getLevel() >= result.length) {
+                result = Arrays.copyOf(result, file.getLevel() + 1);
+            }
+            result[file.getLevel()] += file.sizeInBytes();
+        }
+        return result;
+    }
+
+    @Override
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    @Override
+    public long getFlushNanos() {
+        return flushNanos.sum();
+    }
+
+    @Override
+    public long getFlushedBytes() {
+        return flushedBytes.sum();
+    }
+
+    @Override
+    public long getCompactions() {
+        return compactions.sum();
+    }
+
+    @Override
+    public long getCompactionNanos() {
+        return compactionNanos.sum();
+    }
+
+    @Override
+    public long getCompactionBytesRead() {
+        return compactionBytesRead.sum();
+    }
+
+    @Override
+    public long getCompactionBytesWritten() {
+        return compactionBytesWritten.sum();
+    }
+
+    /**
+     * Returns the number of tombstones skipped by iterators.
+     */
+    @Override
+    public long getTombstonesScanned() {
+        return tombstonesScanned.sum();
+    }
+
+    /**
+     * Returns the number of FileTable lookups the Bloom filters rejected.
+     */
+    @Override
+    public long getBloomNegatives() {
+        return bloomNegatives.sum();
+    }
+
+    /**
+     * Returns the number of blocks searched in vain after their Bloom filters passed the key.
+     */
+    @Override
+    public long getBloomFalsePositives() {
+        return bloomFalsePositives.sum();
+    }
+
+    /**
+     * Returns the number of blocks searched by point lookups.
+     */
+    @Override
+    public long getBlocksRead() {
+        return blocksRead.sum();
+    }
+
+    /**
+     * Returns the read amplification of point lookups.
+     */
+    @Override
+    public double getBlocksReadPerGet() {
+        final long gets = getLatency.getCount();
+        return gets == 0L ? 0.0 : (double) blocksRead.sum() / gets;
+    }
+
+    /**
+     * Returns hits of the block cache, which may be shared with other storages.
+     */
+    @Override
+    public long getCacheHits() {
+        return cache == null ? 0L : cache.getHits();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cache == null ? 0L : cache.getMisses();
+    }
+
+    /**
+     * Returns the number of mapped FileTables, which may be shared with other storages.
+     */
+    @Override
+    public int getMappedTables() {
+        return tableCache.size();
+    }
+
+    @Override
+    public long getTableOpens() {
+        return tableCache.getOpens();
+    }
+
+    @Override
+    public long getTableEvictions() {
+        return tableCache.getEvictions();
+    }
+
+    /**
+     * Returns the number of checksum mismatches found by lookups and the scrubber.
+     */
+    @Override
+    public long getCorruptions() {
+        return corruptions.sum();
+    }
+
+    /**
+     * Returns the size of FileTables verified by the scrubber.
+     */
+    @Override
+    public long getScrubbedBytes() {
+        return scrubbedBytes.sum();
+    }
+
+    /**
+     * Returns the size of FileTables written by {@link LSMDao#ingest}.
+     */
+    @Override
+    public long getIngestedBytes() {
+        return ingestedBytes.sum();
+    }
+}
@@ -0,0 +1,68 @@
+package ru.mail.polis.prohladenn;
+
+import ru.mail.polis.LatencyHistogram;
+
+/**
+ * Management interface of {@link Metrics}. Latencies are in nanoseconds.
+ */
+public interface MetricsMXBean {
+    LatencyHistogram getGetLatency();
+
+    LatencyHistogram getUpsertLatency();
+
+    LatencyHistogram getRemoveLatency();
+
+    LatencyHistogram getIteratorLatency();
+
+    LatencyHistogram getBatchLatency();
+
+    long getMemTableBytes();
+
+    int getFrozenMemTables();
+
+    int getFileCount();
+
+    int[] getFilesPerLevel();
+
+    long[] getBytesPerLevel();
+
+    long getFlushes();
+
+    long getFlushNanos();
+
+    long getFlushedBytes();
+
+    long getCompactions();
+
+    long getCompactionNanos();
+
+    long getCompactionBytesRead();
+
+    long getCompactionBytesWritten();
+
+    long getTombstonesScanned();
+
+    long getBloomNegatives();
+
+    long getBloomFalsePositives();
+
+    long getBlocksRead();
+
+    double getBlocksReadPerGet();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    int getMappedTables();
+
+    long getTableOpens();
+
+    long getTableEvictions();
+
+    long getCorruptions();
+
+    long getScrubbedBytes();
+
+    long getIngestedBytes();
+}
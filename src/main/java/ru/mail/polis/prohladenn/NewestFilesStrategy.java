@@ -0,0 +1,35 @@
+package ru.mail.polis.prohladenn;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * Merges the newest FileTables of level 0 once there are too many of them.
+ */
+public final class NewestFilesStrategy implements CompactionStrategy {
+    private final int threshold;
+
+    /**
+     * Creates the strategy.
+     *
+     * @param threshold number of FileTables that triggers a compaction
+     */
+    public NewestFilesStrategy(final int threshold) {
+        if (threshold < 2) {
+            throw new IllegalArgumentException("Threshold must be at least 2: " + threshold);
+        }
+        this.threshold = threshold;
+    }
+
+    @Nullable
+    @Override
+    public Compaction select(@NotNull final List<FileTable> files) {
+        final List<FileTable> level0 = Compaction.level0(files);
+        if (level0.size() < threshold) {
+            return null;
+        }
+        return Compaction.merge(level0.subList(level0.size() - threshold, level0.size()));
+    }
+}
@@ -0,0 +1,305 @@
+package ru.mail.polis.prohladenn;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link MemTable} keeping cells outside of the heap, so its size doesn't add to GC work.
+ *
+ * <p>Keys, values and the skip list linking them are copied into direct buffers
+ * allocated in chunks, an arena the table only appends to. Addresses within
+ * the arena are a chunk index in the high half and an offset in the low one.
+ * A node is laid out as
+ * <pre>
+ *     [value address][key size][height][next addresses, one per level][key]
+ * </pre>
+ * and a value as {@code [timestamp][size or -1 for a tombstone][data]}.
+ * Replacing a value appends the new one and repoints the node.
+ *
+ * <p>Writers are serialized, while readers go without locks: a node or value
+ * is written in full before the address of it is published with a release store,
+ * and readers load addresses with acquire ones.
+ *
+ * <p>Its size is the capacity of the chunks, which the flush threshold is compared
+ * with. Chunks are never freed explicitly, not even after a flush: cells handed out
+ * are slices of the arena and may outlive the table in records of callers, so
+ * the chunks are released by their cleaners once GC finds the flushed table and
+ * all of those cells unreachable. Until then they stay allocated, limited by
+ * {@code -XX:MaxDirectMemorySize}.
+ */
+final class OffHeapMemTable extends MemTable {
+    private static final int CHUNK = 1 << 20;
+
+    // Every level is taken with the probability of a quarter,
+    // which is enough for 4^12 = 16M cells
+    private static final int MAX_HEIGHT = 12;
+
+    // Addresses of the first bytes are never given out, so zero means none
+    private static final long NIL = 0L;
+
+    // Node layout
+    private static final int VALUE = 0;
+    private static final int KEY_SIZE = VALUE + Long.BYTES;
+    private static final int HEIGHT = KEY_SIZE + Integer.BYTES;
+    private static final int NEXT = HEIGHT + Integer.BYTES;
+
+    // Value layout
+    private static final int TIMESTAMP = 0;
+    private static final int DATA_SIZE = TIMESTAMP + Long.BYTES;
+    private static final int DATA = DATA_SIZE + Integer.BYTES;
+
+    // Chunks stay big-endian like keys are, so they are compared without swapping bytes
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private final AtomicLongArray head = new AtomicLongArray(MAX_HEIGHT);
+    private final Lock lock = new ReentrantLock();
+
+    // Guarded by the lock
+    private final long[] preds = new long[MAX_HEIGHT];
+    private int chunkCount;
+    private int current = -1;
+    private int position;
+
+    // Replaced by the writer when grown, published before the addresses within
+    private volatile ByteBuffer[] chunks = new ByteBuffer[4];
+    private volatile long sizeInBytes;
+
+    @Override
+    public long sizeInBytes() {
+        return sizeInBytes;
+    }
+
+    @Override
+    boolean isEmpty() {
+        return head.get(0) == NIL;
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> iterator(@NotNull final ByteBuffer from) {
+        final long first = find(from, null);
+        return new Iterator<>() {
+            private long node = first;
+
+            @Override
+            public boolean hasNext() {
+                return node != NIL;
+            }
+
+            @Override
+            public Cell next() {
+                if (node == NIL) {
+                    throw new NoSuchElementException();
+                }
+                final Cell cell = new Cell(keyOf(node), valueOf(node));
+                node = nextOf(node, 0);
+                return cell;
+            }
+        };
+    }
+
+    @Nullable
+    @Override
+    public Value get(@NotNull final ByteBuffer key) {
+        final long node = find(key, null);
+        if (node == NIL || compare(node, key) != 0) {
+            return null;
+        }
+        return valueOf(node);
+    }
+
+    @Override
+    void put(@NotNull final ByteBuffer key, @NotNull final Value value) {
+        lock.lock();
+        try {
+            final long found = find(key, preds);
+            if (found != NIL && compare(found, key) == 0) {
+                final ByteBuffer chunk = chunkOf(found);
+                final int offset = offsetOf(found);
+                final long previous = chunk.getLong(offset + VALUE);
+                if (chunkOf(previous).getLong(offsetOf(previous) + TIMESTAMP) > value.getTimeStamp()) {
+                    return;
+                }
+                LONGS.setRelease(chunk, offset + VALUE, write(value));
+                return;
+            }
+
+            final long valueAddress = write(value);
+            final int height = randomHeight();
+            final int keySize = key.remaining();
+            final long node = allocate(NEXT + height * Long.BYTES + keySize);
+            final ByteBuffer chunk = chunkOf(node);
+            final int offset = offsetOf(node);
+            chunk.putLong(offset + VALUE, valueAddress);
+            chunk.putInt(offset + KEY_SIZE, keySize);
+            chunk.putInt(offset + HEIGHT, height);
+            for (int level = 0; level < height; level++) {
+                chunk.putLong(offset + NEXT + level * Long.BYTES, nextOf(preds[level], level));
+            }
+            chunk.duplicate().position(offset + NEXT + height * Long.BYTES).put(key.duplicate());
+
+            // Bottom up, so the node is reachable from below before from above
+            for (int level = 0; level < height; level++) {
+                link(preds[level], level, node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Finds the first node with the key not less than the given one.
+     *
+     * @param key   key to look for
+     * @param preds array to store the last node before the key at every level in or {@code null}
+     * @return the node or {@link #NIL} if all keys are less
+     */
+    private long find(
+            @NotNull final ByteBuffer key,
+            @Nullable final long[] preds) {
+        long pred = NIL;
+        long next = NIL;
+        for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+            next = nextOf(pred, level);
+            while (next != NIL && compare(next, key) < 0) {
+                pred = next;
+                next = nextOf(pred, level);
+            }
+            if (preds != null) {
+                preds[level] = pred;
+            }
+        }
+        return next;
+    }
+
+    private long nextOf(
+            final long node,
+            final int level) {
+        if (node == NIL) {
+            return head.get(level);
+        }
+        return (long) LONGS.getAcquire(chunkOf(node), offsetOf(node) + NEXT + level * Long.BYTES);
+    }
+
+    private void link(
+            final long node,
+            final int level,
+            final long next) {
+        if (node == NIL) {
+            head.setRelease(level, next);
+        } else {
+            LONGS.setRelease(chunkOf(node), offsetOf(node) + NEXT + level * Long.BYTES, next);
+        }
+    }
+
+    private int compare(
+            final long node,
+            @NotNull final ByteBuffer key) {
+        final ByteBuffer chunk = chunkOf(node);
+        final int offset = offsetOf(node);
+        return Bytes.compare(
+                chunk, keyOffset(chunk, offset), chunk.getInt(offset + KEY_SIZE),
+                key, key.position(), key.remaining());
+    }
+
+    @NotNull
+    private ByteBuffer keyOf(final long node) {
+        final ByteBuffer chunk = chunkOf(node);
+        final int offset = offsetOf(node);
+        return slice(chunk, keyOffset(chunk, offset), chunk.getInt(offset + KEY_SIZE)).asReadOnlyBuffer();
+    }
+
+    @NotNull
+    private Value valueOf(final long node) {
+        final long address = (long) LONGS.getAcquire(chunkOf(node), offsetOf(node) + VALUE);
+        final ByteBuffer chunk = chunkOf(address);
+        final int offset = offsetOf(address);
+        final int size = chunk.getInt(offset + DATA_SIZE);
+        return new Value(chunk.getLong(offset + TIMESTAMP), size < 0 ? null : slice(chunk, offset + DATA, size));
+    }
+
+    private long write(@NotNull final Value value) {
+        final ByteBuffer data = value.isRemoved() ? null : value.getData();
+        final long address = allocate(DATA + (data == null ? 0 : data.remaining()));
+        final ByteBuffer chunk = chunkOf(address);
+        final int offset = offsetOf(address);
+        chunk.putLong(offset + TIMESTAMP, value.getTimeStamp());
+        if (data == null) {
+            chunk.putInt(offset + DATA_SIZE, -1);
+        } else {
+            chunk.putInt(offset + DATA_SIZE, data.remaining());
+            chunk.duplicate().position(offset + DATA).put(data);
+        }
+        return address;
+    }
+
+    /**
+     * Reserves aligned space in the arena. Records larger than a chunk get one of their own.
+     */
+    private long allocate(final int size) {
+        final int aligned = (size + Long.BYTES - 1) & -Long.BYTES;
+        if (aligned > CHUNK - Long.BYTES) {
+            return (long) addChunk(Long.BYTES + aligned) << Integer.SIZE | Long.BYTES;
+        }
+        if (current < 0 || position + aligned > CHUNK) {
+            current = addChunk(CHUNK);
+            position = Long.BYTES;
+        }
+        final long address = (long) current << Integer.SIZE | position;
+        position += aligned;
+        return address;
+    }
+
+    private int addChunk(final int capacity) {
+        // Aligned for atomic access to the addresses
+        final ByteBuffer chunk = ByteBuffer.allocateDirect(capacity + Long.BYTES).alignedSlice(Long.BYTES);
+        ByteBuffer[] grown = chunks;
+        if (chunkCount == grown.length) {
+            grown = Arrays.copyOf(grown, grown.length * 2);
+        }
+        grown[chunkCount] = chunk;
+        chunks = grown;
+        sizeInBytes += capacity;
+        return chunkCount++;
+    }
+
+    @NotNull
+    private ByteBuffer chunkOf(final long address) {
+        return chunks[(int) (address >>> Integer.SIZE)];
+    }
+
+    private static int offsetOf(final long address) {
+        return (int) address;
+    }
+
+    private static int keyOffset(
+            @NotNull final ByteBuffer chunk,
+            final int offset) {
+        return offset + NEXT + chunk.getInt(offset + HEIGHT) * Long.BYTES;
+    }
+
+    @NotNull
+    private static ByteBuffer slice(
+            @NotNull final ByteBuffer chunk,
+            final int offset,
+            final int size) {
+        return chunk.duplicate().position(offset).limit(offset + size).slice();
+    }
+
+    private static int randomHeight() {
+        final int bits = ThreadLocalRandom.current().nextInt();
+        return 1 + Integer.numberOfTrailingZeros(bits | 1 << 2 * (MAX_HEIGHT - 1)) / 2;
+    }
+}
@@ -0,0 +1,87 @@
+package ru.mail.polis.prohladenn;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * Merges FileTables of level 0 of similar size.
+ *
+ * <p>Neighbouring tables form a bucket while each of them stays within
+ * {@code bucketRatio} times the average size of the bucket. A bucket with at
+ * least {@code minThreshold} tables is merged, the one with the smallest
+ * tables first, at most {@code maxThreshold} tables at a time. Every table
+ * is rewritten about once per tier, so the number of tables grows
+ * logarithmically with the data size.
+ */
+public final class SizeTieredStrategy implements CompactionStrategy {
+    private final int minThreshold;
+    private final int maxThreshold;
+    private final double bucketRatio;
+
+    /**
+     * Creates the strategy.
+     *
+     * @param minThreshold minimal number of tables in a bucket to merge
+     * @param maxThreshold maximal number of tables merged at once
+     * @param bucketRatio  maximal ratio between a table size and the bucket average
+     */
+    public SizeTieredStrategy(
+            final int minThreshold,
+            final int maxThreshold,
+            final double bucketRatio) {
+        if (minThreshold < 2 || maxThreshold < minThreshold) {
+            throw new IllegalArgumentException(
+                    "Invalid thresholds: min " + minThreshold + ", max " + maxThreshold);
+        }
+        if (bucketRatio < 1.0) {
+            throw new IllegalArgumentException("Bucket ratio less than 1: " + bucketRatio);
+        }
+        this.minThreshold = minThreshold;
+        this.maxThreshold = maxThreshold;
+        this.bucketRatio = bucketRatio;
+    }
+
+    @Nullable
+    @Override
+    public Compaction select(@NotNull final List<FileTable> all) {
+        final List<FileTable> files = Compaction.level0(all);
+        int bestFrom = 0;
+        int bestTo = 0;
+        double bestAverage = Double.MAX_VALUE;
+
+        int from = 0;
+        long total = 0L;
+        for (int i = 0; i <= files.size(); i++) {
+            final int count = i - from;
+            if (i < files.size() && (count == 0 || fits(files.get(i).sizeInBytes(), (double) total / count))) {
+                total += files.get(i).sizeInBytes();
+                continue;
+            }
+
+            // The bucket is complete, prefer the one of the smallest tables
+            final double average = (double) total / count;
+            if (count >= minThreshold && average < bestAverage) {
+                bestFrom = from;
+                bestTo = i;
+                bestAverage = average;
+            }
+            if (i < files.size()) {
+                from = i;
+                total = files.get(i).sizeInBytes();
+            }
+        }
+
+        if (bestTo == 0) {
+            return null;
+        }
+        return Compaction.merge(files.subList(bestFrom, Math.min(bestTo, bestFrom + maxThreshold)));
+    }
+
+    private boolean fits(
+            final long size,
+            final double average) {
+        return size >= average / bucketRatio && size <= average * bucketRatio;
+    }
+}
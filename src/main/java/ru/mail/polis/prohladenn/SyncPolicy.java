@@ -0,0 +1,22 @@
+package ru.mail.polis.prohladenn;
+
+/**
+ * Defines when appended {@link CommitLog} records reach the disk.
+ */
+public enum SyncPolicy {
+    /**
+     * Every write is forced to disk before it is acknowledged.
+     * Concurrent writes share a single force.
+     */
+    EVERY_WRITE,
+
+    /**
+     * Writes go to the OS immediately and are forced to disk every sync interval.
+     */
+    PERIODIC,
+
+    /**
+     * Writes go to the OS and are forced only when a log segment is closed.
+     */
+    OS_BUFFERED
+}
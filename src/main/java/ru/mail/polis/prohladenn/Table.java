@@ -1,6 +1,7 @@
 package ru.mail.polis.prohladenn;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -12,6 +13,16 @@ public interface Table {
     @NotNull
     Iterator<Cell> iterator(@NotNull ByteBuffer from) throws IOException;
 
+    /**
+     * Looks up the key.
+     *
+     * @param key key to look for
+     * @return value or tombstone of the key, {@code null} if the table doesn't contain it
+     * @throws IOException if an I/O error occurred
+     */
+    @Nullable
+    Value get(@NotNull ByteBuffer key) throws IOException;
+
     void upsert(@NotNull ByteBuffer key, @NotNull ByteBuffer value) throws IOException;
 
     void remove(@NotNull ByteBuffer key) throws IOException;
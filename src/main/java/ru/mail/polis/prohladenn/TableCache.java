@@ -0,0 +1,128 @@
+package ru.mail.polis.prohladenn;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Count-bounded set of {@link FileTable}s kept mapped, so that thousands of
+ * tables neither take long to open nor exhaust {@code vm.max_map_count}.
+ *
+ * <p>Eviction is CLOCK: a read only marks the table as referenced, and the hand
+ * sweeping the mapped tables gives every referenced one a second chance.
+ * Evicted mappings are only dropped, not unmapped, since cells read from them
+ * may still be in use; the JVM unmaps them once they are unreachable.
+ * Files are mapped outside the lock, which only guards the set of mapped tables,
+ * so reads of tables of all storages don't wait for each other's I/O.
+ */
+final class TableCache {
+    private final int capacity;
+    private final List<FileTable> mapped = new ArrayList<>();
+    private final LongAdder opens = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private int hand;
+
+    TableCache(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Non-positive capacity: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Maps the table evicting another one if the cache is full.
+     * Threads loading the same table concurrently may map it more than once,
+     * and all of them get the mapping published first.
+     *
+     * @param table table to map
+     * @return the mapping of the table
+     * @throws IOException if an I/O error occurred
+     */
+    @NotNull
+    FileTable.Mapping load(@NotNull final FileTable table) throws IOException {
+        final FileTable.Mapping cached = table.cachedMapping();
+        if (cached != null) {
+            return cached;
+        }
+        final FileTable.Mapping mapping = table.map();
+        synchronized (this) {
+            final FileTable.Mapping published = table.cachedMapping();
+            if (published != null) {
+                return published;
+            }
+            opens.increment();
+            if (mapped.size() < capacity) {
+                mapped.add(table);
+            } else {
+                while (true) {
+                    hand = (hand + 1) % mapped.size();
+                    final FileTable victim = mapped.get(hand);
+                    if (!victim.clearReferenced()) {
+                        victim.setMapping(null);
+                        mapped.set(hand, table);
+                        evictions.increment();
+                        break;
+                    }
+                }
+            }
+            table.setMapping(mapping);
+        }
+        return mapping;
+    }
+
+    /**
+     * Forgets the table which is no longer read, e.g. of a closed storage.
+     */
+    synchronized void remove(@NotNull final FileTable table) {
+        unlink(table);
+        table.setMapping(null);
+    }
+
+    /**
+     * Takes the table out of the cache keeping it mapped, so that readers
+     * which still see a table replaced by compaction can read it after
+     * the file is deleted.
+     *
+     * @param table table to be deleted
+     * @throws IOException if an I/O error occurred
+     */
+    void retire(@NotNull final FileTable table) throws IOException {
+        FileTable.Mapping mapping = table.cachedMapping() == null ? table.map() : null;
+        synchronized (this) {
+            unlink(table);
+            if (table.cachedMapping() != null) {
+                return;
+            }
+            if (mapping == null) {
+                // Evicted while we were unlocked
+                mapping = table.map();
+            }
+            table.setMapping(mapping);
+        }
+    }
+
+    private void unlink(@NotNull final FileTable table) {
+        final int i = mapped.indexOf(table);
+        if (i >= 0) {
+            mapped.remove(i);
+            if (hand >= i && hand > 0) {
+                hand--;
+            }
+        }
+    }
+
+    synchronized int size() {
+        return mapped.size();
+    }
+
+    long getOpens() {
+        return opens.sum();
+    }
+
+    long getEvictions() {
+        return evictions.sum();
+    }
+}
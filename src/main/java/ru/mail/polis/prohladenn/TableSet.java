@@ -0,0 +1,101 @@
+package ru.mail.polis.prohladenn;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable view of all tables of {@link LSMDao}.
+ *
+ * <p>The active MemTable takes writes, frozen MemTables wait for the
+ * background flush and FileTables are ordered from the oldest to the newest:
+ * the deepest level first, ordered by key within a level, and level 0 last,
+ * ordered by generation.
+ */
+final class TableSet {
+    static final Comparator<FileTable> ORDER = (a, b) -> {
+        if (a.getLevel() != b.getLevel()) {
+            return Integer.compare(b.getLevel(), a.getLevel());
+        }
+        if (a.getLevel() == 0) {
+            return Integer.compare(a.getGeneration(), b.getGeneration());
+        }
+        return a.getMinKey().compareTo(b.getMinKey());
+    };
+
+    final MemTable memTable;
+    final List<MemTable> flushing;
+    final List<FileTable> files;
+    final int generation;
+
+    TableSet(
+            @NotNull final MemTable memTable,
+            @NotNull final List<MemTable> flushing,
+            @NotNull final List<FileTable> files,
+            final int generation) {
+        this.memTable = memTable;
+        this.flushing = Collections.unmodifiableList(flushing);
+        this.files = Collections.unmodifiableList(files);
+        this.generation = generation;
+    }
+
+    /**
+     * Replaces the active MemTable with an empty one.
+     *
+     * @param empty      the new MemTable
+     * @param generation generation of the new MemTable
+     */
+    @NotNull
+    TableSet freeze(
+            @NotNull final MemTable empty,
+            final int generation) {
+        final List<MemTable> frozen = new ArrayList<>(flushing);
+        frozen.add(memTable);
+        return new TableSet(empty, frozen, files, generation);
+    }
+
+    /**
+     * Replaces a frozen MemTable with the FileTable it was written to.
+     *
+     * @param memTable flushed MemTable
+     * @param file     resulting FileTable or {@code null} if nothing was written
+     */
+    @NotNull
+    TableSet flushed(
+            @NotNull final MemTable memTable,
+            @Nullable final FileTable file) {
+        final List<MemTable> frozen = new ArrayList<>(flushing);
+        frozen.remove(memTable);
+        final List<FileTable> result = new ArrayList<>(files);
+        if (file != null) {
+            result.add(file);
+        }
+        return new TableSet(this.memTable, frozen, result, generation);
+    }
+
+    /**
+     * Replaces compacted FileTables with the merged ones.
+     *
+     * @param inputs  compacted FileTables
+     * @param outputs merged FileTables
+     */
+    @NotNull
+    TableSet compacted(
+            @NotNull final Collection<FileTable> inputs,
+            @NotNull final Collection<FileTable> outputs) {
+        final List<FileTable> result = new ArrayList<>(files.size() - inputs.size() + outputs.size());
+        for (final FileTable file : files) {
+            if (!inputs.contains(file)) {
+                result.add(file);
+            }
+        }
+        result.addAll(outputs);
+        result.sort(ORDER);
+        return new TableSet(memTable, flushing, result, generation);
+    }
+}
@@ -3,8 +3,14 @@ package ru.mail.polis.prohladenn;
 import org.jetbrains.annotations.NotNull;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public final class Value implements Comparable<Value> {
+    // Wall clock in nanoseconds, so that writes of a later run are newer,
+    // bumped to stay unique and monotonic within the run
+    private static final AtomicLong CLOCK = new AtomicLong();
+
     private final long ts;
     private final ByteBuffer data;
 
@@ -14,11 +20,43 @@ public final class Value implements Comparable<Value> {
     }
 
     public static Value of(final ByteBuffer data) {
-        return new Value(System.nanoTime(), data.duplicate());
+        return new Value(now(), data.duplicate());
     }
 
     static Value tombstone() {
-        return new Value(System.nanoTime(), null);
+        return new Value(now(), null);
+    }
+
+    private static long now() {
+        return reserve(1);
+    }
+
+    /**
+     * Takes consecutive timestamps newer than all taken before.
+     *
+     * @param count number of timestamps
+     * @return the first of them
+     */
+    static long reserve(final int count) {
+        final long wall = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        return CLOCK.accumulateAndGet(wall, (last, current) -> Math.max(last + count, current + count - 1)) - count + 1;
+    }
+
+    /**
+     * Returns a timestamp not older than any taken before.
+     */
+    static long last() {
+        return CLOCK.get();
+    }
+
+    /**
+     * Makes timestamps taken from now on newer than the given one, e.g. read from disk,
+     * so that writes stay newer than the stored data if the wall clock steps back.
+     *
+     * @param timestamp timestamp of stored data
+     */
+    static void advance(final long timestamp) {
+        CLOCK.accumulateAndGet(timestamp, Math::max);
     }
 
     boolean isRemoved() {
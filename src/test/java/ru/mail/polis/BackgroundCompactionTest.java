@@ -0,0 +1,112 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.prohladenn.Config;
+import ru.mail.polis.prohladenn.LSMDao;
+import ru.mail.polis.prohladenn.Metrics;
+import ru.mail.polis.prohladenn.SizeTieredStrategy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compactions {@link LSMDao} runs on its own as tables pile up.
+ */
+class BackgroundCompactionTest extends TestBase {
+    private static final int TABLES = 8;
+    private static final int KEYS_PER_TABLE = 64;
+    private static final int VALUE_SIZE = 1024;
+
+    @Test
+    void mergeStepByStep(@TempDir File data) throws Exception {
+        populate(data);
+
+        // Two tables at a time, whatever their sizes
+        final Config config = Config.builder()
+                .compactionStrategy(new SizeTieredStrategy(2, 2, 1000.0))
+                .build();
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            final Metrics metrics = dao.getMetrics();
+            awaitCompactions(metrics, TABLES - 1);
+            assertEquals(1, metrics.getFileCount());
+            assertAll(dao);
+        }
+    }
+
+    @Test
+    void throttle(@TempDir File data) throws Exception {
+        populate(data);
+
+        // Half a megabyte at 256 KB/s takes two seconds, less the burst the limiter may save up
+        final long rate = 256 * 1024;
+        final Config config = Config.builder()
+                .compactionStrategy(new SizeTieredStrategy(TABLES, TABLES, 1.5))
+                .compactionBytesPerSecond(rate)
+                .build();
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            final Metrics metrics = dao.getMetrics();
+            awaitCompactions(metrics, 1);
+            assertEquals(1, metrics.getFileCount());
+            final long bytes = TABLES * KEYS_PER_TABLE * VALUE_SIZE;
+            final long minNanos = TimeUnit.SECONDS.toNanos(bytes / rate - 1);
+            assertTrue(metrics.getCompactionNanos() >= minNanos,
+                    "Compacted in " + TimeUnit.NANOSECONDS.toMillis(metrics.getCompactionNanos()) + " ms");
+            assertAll(dao);
+        }
+    }
+
+    /**
+     * Writes tables of the same size, which are left uncompacted.
+     */
+    private static void populate(final File data) throws IOException {
+        final Config config = Config.builder()
+                .compactionStrategy(files -> null)
+                .build();
+        for (int table = 0; table < TABLES; table++) {
+            try (DAO dao = new LSMDao(data, config, false)) {
+                for (int i = table; i < TABLES * KEYS_PER_TABLE; i += TABLES) {
+                    dao.upsert(key(i), value(i));
+                }
+            }
+        }
+    }
+
+    private static void awaitCompactions(
+            final Metrics metrics,
+            final long count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 60_000;
+        while (metrics.getCompactions() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, metrics.getCompactions());
+    }
+
+    private static void assertAll(final DAO dao) throws IOException {
+        final Iterator<Record> records = dao.iterator(key(0));
+        for (int i = 0; i < TABLES * KEYS_PER_TABLE; i++) {
+            assertEquals(value(i), dao.get(key(i)));
+            assertTrue(records.hasNext());
+            assertEquals(value(i), records.next().getValue());
+        }
+        assertFalse(records.hasNext());
+    }
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%05d", i).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static ByteBuffer value(final int i) {
+        final ByteBuffer result = ByteBuffer.allocate(VALUE_SIZE);
+        result.putInt(0, i);
+        return result;
+    }
+}
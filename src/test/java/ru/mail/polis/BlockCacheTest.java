@@ -0,0 +1,76 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.prohladenn.BlockCache;
+import ru.mail.polis.prohladenn.Config;
+import ru.mail.polis.prohladenn.LSMDao;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Block cache tests for {@link ru.mail.polis.prohladenn.LSMDao}.
+ */
+class BlockCacheTest extends TestBase {
+    private static final int KEYS = 3000;
+
+    @NotNull
+    private static DAO open(
+            @NotNull final File data,
+            @NotNull final BlockCache cache) throws IOException {
+        return new LSMDao(data, Config.builder().blockCache(cache).build(), false);
+    }
+
+    @Test
+    void scanKeepsHotBlocks(@TempDir File data) throws IOException {
+        final List<ByteBuffer> keys = new ArrayList<>(KEYS);
+        final BlockCache cache = new BlockCache(1024 * 1024, false);
+        try (DAO dao = open(data, cache)) {
+            for (int i = 0; i < KEYS; i++) {
+                final ByteBuffer key = randomKey();
+                keys.add(key);
+                dao.upsert(key, join(key, randomValue()));
+            }
+            dao.compact();
+        }
+
+        try (DAO dao = open(data, cache)) {
+            final List<ByteBuffer> hot = keys.subList(0, 20);
+
+            // The second read of a block makes it hot
+            for (int round = 0; round < 2; round++) {
+                for (final ByteBuffer key : hot) {
+                    assertEquals(key, dao.get(key).limit(KEY_LENGTH));
+                }
+            }
+            final long misses = cache.getMisses();
+            assertTrue(cache.getHits() >= hot.size());
+
+            // A scan of the whole storage doesn't evict them
+            final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+            int count = 0;
+            while (records.hasNext()) {
+                records.next();
+                count++;
+            }
+            assertEquals(KEYS, count);
+            assertTrue(cache.getEvictions() > 0);
+            assertTrue(cache.sizeInBytes() <= 1024 * 1024);
+
+            final long scanMisses = cache.getMisses() - misses;
+            for (final ByteBuffer key : hot) {
+                assertEquals(key, dao.get(key).limit(KEY_LENGTH));
+            }
+            assertEquals(misses + scanMisses, cache.getMisses());
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.prohladenn.Config;
+import ru.mail.polis.prohladenn.DeflateCodec;
+import ru.mail.polis.prohladenn.LSMDao;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Block compression tests for {@link ru.mail.polis.prohladenn.LSMDao}.
+ */
+class CompressionTest extends TestBase {
+    private static final int KEYS = 5000;
+
+    @NotNull
+    private static ByteBuffer json(final int i) {
+        final String value = "{\"id\":" + i + ",\"name\":\"user" + i + "\",\"tags\":[\"a\",\"b\",\"c\"],"
+                + "\"description\":\"the same text repeated over and over again\"}";
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void compressedAndPlain(@TempDir File data) throws IOException {
+        final Map<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        long rawSize = 0L;
+        final Config compressed = Config.builder()
+                .compression(new DeflateCodec(Deflater.BEST_SPEED))
+                .build();
+        try (DAO dao = new LSMDao(data, compressed, false)) {
+            for (int i = 0; i < KEYS; i++) {
+                final ByteBuffer key = randomKey();
+                final ByteBuffer value = json(i);
+                dao.upsert(key, value);
+                expected.put(key, value);
+                rawSize += key.remaining() + value.remaining();
+            }
+            dao.compact();
+            check(dao, expected);
+        }
+
+        long fileSize = 0L;
+        for (final File file : data.listFiles()) {
+            fileSize += file.length();
+        }
+        assertTrue(fileSize * 2 < rawSize);
+
+        // Built-in codecs are readable without configuration
+        try (DAO dao = new LSMDao(data, Config.builder().build(), false)) {
+            check(dao, expected);
+        }
+    }
+
+    private static void check(
+            @NotNull final DAO dao,
+            @NotNull final Map<ByteBuffer, ByteBuffer> expected) throws IOException {
+        final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+            assertTrue(records.hasNext());
+            final Record record = records.next();
+            assertEquals(entry.getKey(), record.getKey());
+            assertEquals(entry.getValue(), record.getValue());
+            assertEquals(entry.getValue(), dao.get(entry.getKey()));
+        }
+        assertFalse(records.hasNext());
+    }
+}
@@ -0,0 +1,160 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.prohladenn.Config;
+import ru.mail.polis.prohladenn.LSMDao;
+import ru.mail.polis.prohladenn.SyncPolicy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Concurrent access tests for {@link DAO} implementations.
+ */
+class ConcurrencyTest extends TestBase {
+    private static final int THREADS = 8;
+
+    @Test
+    void concurrentUpserts(@TempDir File data) throws Exception {
+        final int keysPerThread = 1000;
+        final List<List<ByteBuffer>> keys = new ArrayList<>(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            final List<ByteBuffer> threadKeys = new ArrayList<>(keysPerThread);
+            for (int j = 0; j < keysPerThread; j++) {
+                threadKeys.add(randomKey());
+            }
+            keys.add(threadKeys);
+        }
+
+        try (DAO dao = DAOFactory.create(data)) {
+            final Collection<Callable<Void>> writers = new ArrayList<>(THREADS);
+            for (final List<ByteBuffer> threadKeys : keys) {
+                writers.add(() -> {
+                    for (final ByteBuffer key : threadKeys) {
+                        dao.upsert(key, join(key, key));
+                    }
+                    return null;
+                });
+            }
+            runAll(writers);
+
+            for (final List<ByteBuffer> threadKeys : keys) {
+                for (final ByteBuffer key : threadKeys) {
+                    assertEquals(join(key, key), dao.get(key));
+                }
+            }
+        }
+
+        try (DAO dao = DAOFactory.create(data)) {
+            for (final List<ByteBuffer> threadKeys : keys) {
+                for (final ByteBuffer key : threadKeys) {
+                    assertEquals(join(key, key), dao.get(key));
+                }
+            }
+        }
+    }
+
+    @Test
+    void readersAndWriters(@TempDir File data) throws Exception {
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomValue();
+        final int rounds = 2000;
+
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(key, value);
+            final Collection<Callable<Void>> tasks = new ArrayList<>(THREADS);
+            for (int i = 0; i < THREADS / 2; i++) {
+                tasks.add(() -> {
+                    for (int j = 0; j < rounds; j++) {
+                        dao.upsert(randomKey(), randomValue());
+                    }
+                    return null;
+                });
+                tasks.add(() -> {
+                    for (int j = 0; j < rounds; j++) {
+                        assertEquals(value, dao.get(key));
+                    }
+                    return null;
+                });
+            }
+            runAll(tasks);
+        }
+    }
+
+    @Test
+    void closeWhileCommitting(@TempDir File data) throws Exception {
+        final Config config = Config.builder()
+                .sync(SyncPolicy.EVERY_WRITE, 100L)
+                .build();
+        final Queue<ByteBuffer> committed = new ConcurrentLinkedQueue<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final DAO dao = new LSMDao(data, config, false);
+            final CountDownLatch started = new CountDownLatch(THREADS);
+            final List<Future<?>> writers = new ArrayList<>(THREADS);
+            for (int i = 0; i < THREADS; i++) {
+                writers.add(executor.submit(() -> {
+                    started.countDown();
+                    try {
+                        while (true) {
+                            final ByteBuffer key = randomKey();
+                            dao.upsert(key, join(key, key));
+                            committed.add(key);
+                        }
+                    } catch (IOException e) {
+                        // Closed
+                        return null;
+                    }
+                }));
+            }
+            started.await();
+            Thread.sleep(100);
+            dao.close();
+
+            // Writers waiting for a commit are released rather than left hanging
+            for (final Future<?> writer : writers) {
+                writer.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertFalse(committed.isEmpty());
+
+        // Every acknowledged record survives
+        try (DAO dao = new LSMDao(data, config, false)) {
+            for (final ByteBuffer key : committed) {
+                assertEquals(join(key, key), dao.get(key));
+            }
+        }
+    }
+
+    private static void runAll(final Collection<Callable<Void>> tasks) throws IOException, InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        try {
+            for (final Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
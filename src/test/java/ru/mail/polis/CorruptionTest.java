@@ -0,0 +1,154 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.prohladenn.Config;
+import ru.mail.polis.prohladenn.CorruptionException;
+import ru.mail.polis.prohladenn.LSMDao;
+import ru.mail.polis.prohladenn.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Detection of corrupted FileTables and commit log records by {@link LSMDao}.
+ */
+class CorruptionTest extends TestBase {
+    private static final int KEYS = 100;
+
+    // The value of the first cell of the first block: [int keySize][key][long timestamp][int valueSize][value]
+    private static final long FIRST_VALUE = Integer.BYTES + 5 + Long.BYTES + Integer.BYTES + 2;
+
+    @Test
+    void verifyOnRead(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .compactionStrategy(files -> null)
+                .build();
+        populate(data, config, 0);
+        flip(table(data), FIRST_VALUE);
+
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            assertThrows(CorruptionException.class, () -> dao.get(key(0)));
+            assertEquals(1, dao.getMetrics().getCorruptions());
+        }
+
+        // Blocks are read as they are
+        final Config unchecked = Config.builder()
+                .compactionStrategy(files -> null)
+                .verifyChecksums(false)
+                .build();
+        try (LSMDao dao = new LSMDao(data, unchecked, false)) {
+            assertNotEquals(value(0), dao.get(key(0)));
+            assertEquals(value(KEYS - 1), dao.get(key(KEYS - 1)));
+            assertEquals(0, dao.getMetrics().getCorruptions());
+        }
+    }
+
+    @Test
+    void scrub(@TempDir File data) throws Exception {
+        final Config config = Config.builder()
+                .compactionStrategy(files -> null)
+                .scrub(1024 * 1024, 10)
+                .build();
+        populate(data, config, 0);
+        final File corrupted = table(data);
+        populate(data, config, KEYS);
+        flip(corrupted, FIRST_VALUE);
+
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            final Metrics metrics = dao.getMetrics();
+            final long deadline = System.currentTimeMillis() + 10_000;
+            while (metrics.getScrubbedBytes() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(metrics.getScrubbedBytes() > 0);
+            assertTrue(metrics.getCorruptions() > 0);
+        }
+    }
+
+    @Test
+    void ignoreCorruptedLogRecord(@TempDir File root) throws IOException {
+        final File data = new File(root, "data");
+        final File crashed = new File(root, "crashed");
+        assertTrue(data.mkdir() && crashed.mkdir());
+        final Config config = Config.builder()
+                .flushThreshold(Long.MAX_VALUE)
+                .build();
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            for (int i = 0; i < KEYS; i++) {
+                dao.upsert(key(i), value(i));
+            }
+
+            // What is left on disk by a crash
+            for (final File file : data.listFiles()) {
+                Files.copy(file.toPath(), new File(crashed, file.getName()).toPath());
+            }
+        }
+
+        File log = null;
+        for (final File file : crashed.listFiles()) {
+            if (file.getName().startsWith("WAL")) {
+                log = file;
+            }
+        }
+        assertNotNull(log);
+        flip(log, log.length() - 2);
+
+        try (LSMDao dao = new LSMDao(crashed, config, false)) {
+            for (int i = 0; i < KEYS - 1; i++) {
+                assertEquals(value(i), dao.get(key(i)));
+            }
+            assertThrows(NoSuchElementException.class, () -> dao.get(key(KEYS - 1)));
+        }
+    }
+
+    private static void populate(
+            final File data,
+            final Config config,
+            final int from) throws IOException {
+        try (DAO dao = new LSMDao(data, config, false)) {
+            for (int i = from; i < from + KEYS; i++) {
+                dao.upsert(key(i), value(i));
+            }
+        }
+    }
+
+    private static File table(final File data) {
+        for (final File file : data.listFiles()) {
+            if (file.getName().startsWith("DB")) {
+                return file;
+            }
+        }
+        throw new AssertionError("No tables in " + data);
+    }
+
+    private static void flip(
+            final File file,
+            final long offset) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(offset);
+            final int b = raf.read();
+            raf.seek(offset);
+            raf.write(b ^ 0xFF);
+        }
+    }
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%05d", i).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static ByteBuffer value(final int i) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(0, -i);
+    }
+}
@@ -0,0 +1,141 @@
+package ru.mail.polis;
+
+import com.google.common.collect.AbstractIterator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.prohladenn.Config;
+import ru.mail.polis.prohladenn.LSMDao;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Bulk loads of unsorted records by {@link LSMDao#ingestUnsorted(Iterator)}.
+ */
+class ExternalSortTest extends TestBase {
+    private static final int KEYS = 20_000;
+
+    // Coprime with the numbers of keys, so that multiplying by it shuffles them
+    private static final long STEP = 7919;
+
+    @Test
+    void lastRecordWins(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .sort(256 * 1024, 2)
+                .build();
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            dao.upsert(key(0), value(0, 0));
+            dao.ingestUnsorted(shuffled(KEYS, 2, 16));
+            dao.upsert(key(1), value(1, 0));
+            assertEquals(0, dao.getMetrics().getCompactionBytesWritten());
+            assertSorted(dao, KEYS, 2);
+        }
+        assertEquals(0, spills(data));
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            assertSorted(dao, KEYS, 2);
+        }
+    }
+
+    @Test
+    void largerThanHeap(@TempDir File data) throws IOException {
+        final int valueSize = 4 * 1024;
+        final int keys = (int) (DAOFactory.MAX_HEAP / valueSize + 1);
+        try (LSMDao dao = new LSMDao(data, Config.builder().build(), false)) {
+            dao.ingestUnsorted(shuffled(keys, 1, valueSize));
+            assertTrue(dao.getMetrics().getIngestedBytes() > DAOFactory.MAX_HEAP);
+            final Iterator<Record> records = dao.iterator(key(0));
+            for (int i = 0; i < keys; i++) {
+                assertTrue(records.hasNext());
+                final Record record = records.next();
+                assertEquals(key(i), record.getKey());
+                assertEquals(i, record.getValue().getInt(0));
+            }
+            assertFalse(records.hasNext());
+        }
+        assertEquals(0, spills(data));
+    }
+
+    @Test
+    void removeSpillsOnFailure(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .sort(64 * 1024, 2)
+                .build();
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            final Iterator<Record> records = shuffled(KEYS, 1, 16);
+            final Iterator<Record> failing = new AbstractIterator<>() {
+                private int count;
+
+                @Override
+                protected Record computeNext() {
+                    if (++count > KEYS / 2) {
+                        throw new IllegalStateException("Source failed");
+                    }
+                    return records.next();
+                }
+            };
+            assertThrows(IllegalStateException.class, () -> dao.ingestUnsorted(failing));
+            assertEquals(0, dao.getMetrics().getFileCount());
+            assertEquals(0, spills(data));
+            assertFalse(dao.iterator(key(0)).hasNext());
+        }
+    }
+
+    private static void assertSorted(
+            final DAO dao,
+            final int keys,
+            final int version) throws IOException {
+        final Iterator<Record> records = dao.iterator(key(0));
+        for (int i = 0; i < keys; i++) {
+            assertTrue(records.hasNext());
+            final Record record = records.next();
+            assertEquals(key(i), record.getKey());
+            assertEquals(value(i, i == 1 ? 0 : version), record.getValue());
+        }
+        assertFalse(records.hasNext());
+    }
+
+    /**
+     * Returns every key in a shuffled order the given number of times, versions growing from 1.
+     */
+    private static Iterator<Record> shuffled(
+            final int keys,
+            final int versions,
+            final int valueSize) {
+        return new AbstractIterator<>() {
+            private long i;
+
+            @Override
+            protected Record computeNext() {
+                if (i == (long) keys * versions) {
+                    return endOfData();
+                }
+                final int version = (int) (i / keys) + 1;
+                final int key = (int) (i++ * STEP % keys);
+                final ByteBuffer value = ByteBuffer.allocate(valueSize).putInt(0, key).putInt(Integer.BYTES, version);
+                return Record.of(key(key), value);
+            }
+        };
+    }
+
+    private static int spills(final File data) {
+        return data.list((dir, name) -> name.endsWith(".tmp")).length;
+    }
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%06d", i).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static ByteBuffer value(
+            final int i,
+            final int version) {
+        return ByteBuffer.allocate(16).putInt(0, i).putInt(Integer.BYTES, version);
+    }
+}
@@ -0,0 +1,245 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.prohladenn.Codec;
+import ru.mail.polis.prohladenn.Config;
+import ru.mail.polis.prohladenn.LSMDao;
+import ru.mail.polis.prohladenn.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Background flushes of frozen MemTables by {@link LSMDao}.
+ */
+class FlushTest extends TestBase {
+    private static final int KEYS = 10_000;
+
+    @Test
+    void flushInBackground(@TempDir File data) throws Exception {
+        final BlockingCodec codec = new BlockingCodec();
+        final Config config = Config.builder()
+                .flushThreshold(1L)
+                .compactionStrategy(files -> null)
+                .compression(codec)
+                .build();
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            final Metrics metrics = dao.getMetrics();
+            try {
+                dao.upsert(key(0), value(0));
+                codec.started.await();
+
+                // The writer is done while the frozen MemTable is being written and stays readable
+                assertEquals(1, metrics.getFrozenMemTables());
+                assertEquals(0, metrics.getFileCount());
+                assertLatest(dao, value(0));
+            } finally {
+                codec.released.countDown();
+            }
+            awaitFiles(metrics, 1);
+            assertEquals(0, metrics.getFrozenMemTables());
+            assertLatest(dao, value(0));
+        }
+    }
+
+    @Test
+    void blockWritersWhenFull(@TempDir File data) throws Exception {
+        final BlockingCodec codec = new BlockingCodec();
+        final Config config = Config.builder()
+                .flushThreshold(1L)
+                .maxImmutableMemTables(1)
+                .compactionStrategy(files -> null)
+                .compression(codec)
+                .build();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            final Future<?> writer;
+            try {
+                dao.upsert(key(0), value(0));
+                codec.started.await();
+
+                // The only frozen MemTable is being written, so the next one waits for it
+                writer = executor.submit(() -> {
+                    dao.upsert(key(0), value(1));
+                    return null;
+                });
+                assertThrows(TimeoutException.class, () -> writer.get(200, TimeUnit.MILLISECONDS));
+                assertEquals(1, dao.getMetrics().getFrozenMemTables());
+            } finally {
+                codec.released.countDown();
+            }
+            writer.get(1, TimeUnit.MINUTES);
+            awaitFiles(dao.getMetrics(), 2);
+            assertLatest(dao, value(1));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void restoreAfterFailure(@TempDir File data) throws IOException {
+        final Config failing = Config.builder()
+                .flushThreshold(1L)
+                .compactionStrategy(files -> null)
+                .compression(new FailingCodec(new AtomicBoolean(true)))
+                .build();
+        int written = 0;
+        try (LSMDao dao = new LSMDao(data, failing, false)) {
+            try {
+                while (written < KEYS) {
+                    dao.upsert(key(written), value(written));
+                    written++;
+                }
+            } catch (IOException e) {
+                // Rejected once the failure is seen
+            }
+            assertTrue(written < KEYS);
+            assertEquals(0, dao.getMetrics().getFileCount());
+            for (int i = 0; i < written; i++) {
+                assertEquals(value(i), dao.get(key(i)));
+            }
+        }
+
+        // Everything acknowledged is replayed from the commit log
+        try (LSMDao dao = new LSMDao(data, Config.builder().compactionStrategy(files -> null).build(), false)) {
+            assertEquals(1, dao.getMetrics().getFileCount());
+            for (int i = 0; i < written; i++) {
+                assertEquals(value(i), dao.get(key(i)));
+            }
+        }
+    }
+
+    @Test
+    void stayOrderedAfterFailure(@TempDir File data) throws IOException {
+        final AtomicBoolean failing = new AtomicBoolean(true);
+        final Config config = Config.builder()
+                .flushThreshold(Long.MAX_VALUE)
+                .compactionStrategy(files -> null)
+                .compression(new FailingCodec(failing))
+                .build();
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            dao.upsert(key(0), value(1));
+            assertThrows(IOException.class, dao::compact);
+
+            // A newer value flushed past the failed MemTable would be hidden by it
+            failing.set(false);
+            assertThrows(IOException.class, () -> dao.upsert(key(0), value(2)));
+            assertThrows(IOException.class, dao::compact);
+            assertLatest(dao, value(1));
+        }
+
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            assertLatest(dao, value(1));
+            dao.upsert(key(0), value(2));
+            assertLatest(dao, value(2));
+            dao.compact();
+            assertLatest(dao, value(2));
+        }
+    }
+
+    private static void awaitFiles(
+            final Metrics metrics,
+            final int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10_000;
+        while (metrics.getFileCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, metrics.getFileCount());
+    }
+
+    private static void assertLatest(
+            final DAO dao,
+            final ByteBuffer value) throws IOException {
+        assertEquals(value, dao.get(key(0)));
+        final Iterator<Record> records = dao.iterator(key(0));
+        assertTrue(records.hasNext());
+        assertEquals(value, records.next().getValue());
+    }
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%05d", i).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static ByteBuffer value(final int i) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(0, i);
+    }
+
+    /**
+     * Stores blocks as is once released.
+     */
+    private static final class BlockingCodec implements Codec {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        @Override
+        public int getId() {
+            return 101;
+        }
+
+        @Override
+        public ByteBuffer compress(@NotNull final ByteBuffer raw) {
+            started.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+            return raw;
+        }
+
+        @Override
+        public void decompress(
+                @NotNull final ByteBuffer compressed,
+                @NotNull final ByteBuffer raw) {
+            raw.put(compressed);
+        }
+    }
+
+    /**
+     * Stores blocks as is unless told to fail.
+     */
+    private static final class FailingCodec implements Codec {
+        private final AtomicBoolean failing;
+
+        FailingCodec(@NotNull final AtomicBoolean failing) {
+            this.failing = failing;
+        }
+
+        @Override
+        public int getId() {
+            return 100;
+        }
+
+        @Override
+        public ByteBuffer compress(@NotNull final ByteBuffer raw) {
+            if (failing.get()) {
+                throw new IllegalStateException("Can't compress");
+            }
+            return raw;
+        }
+
+        @Override
+        public void decompress(
+                @NotNull final ByteBuffer compressed,
+                @NotNull final ByteBuffer raw) {
+            raw.put(compressed);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.prohladenn.Config;
+import ru.mail.polis.prohladenn.LSMDao;
+import ru.mail.polis.prohladenn.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Bulk loads of sorted records by {@link LSMDao#ingest(Iterator)}.
+ */
+class IngestTest extends TestBase {
+    private static final int KEYS = 10_000;
+
+    @Test
+    void writeOnce(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .ingestFileSize(64 * 1024)
+                .build();
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            dao.ingest(records(0, KEYS, 0));
+            final Metrics metrics = dao.getMetrics();
+            assertTrue(metrics.getFileCount() > 1);
+            assertEquals(0, metrics.getBytesPerLevel()[0]);
+            assertEquals(metrics.getIngestedBytes(), metrics.getBytesPerLevel()[1]);
+            assertEquals(0, metrics.getFlushedBytes());
+            assertEquals(0, metrics.getCompactionBytesWritten());
+            assertRange(dao.iterator(key(0)), 0, KEYS, 0);
+        }
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            assertRange(dao.iterator(key(0)), 0, KEYS, 0);
+            for (int i = 0; i < KEYS; i++) {
+                assertEquals(value(i, 0), dao.get(key(i)));
+            }
+        }
+    }
+
+    @Test
+    void orderWithWrites(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .flushThreshold(16 * 1024)
+                .ingestFileSize(64 * 1024)
+                .compactionStrategy(files -> null)
+                .build();
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            for (int i = 0; i < KEYS; i += 2) {
+                dao.upsert(key(i), value(i, 1));
+            }
+            dao.ingest(records(0, KEYS, 2));
+            for (int i = 0; i < KEYS; i += 3) {
+                dao.upsert(key(i), value(i, 3));
+            }
+            assertTrue(dao.getMetrics().getBytesPerLevel()[0] >= dao.getMetrics().getIngestedBytes());
+            assertOrdered(dao);
+        }
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            assertOrdered(dao);
+            dao.compact();
+            assertOrdered(dao);
+        }
+    }
+
+    @Test
+    void rejectUnsorted(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .ingestFileSize(1024)
+                .build();
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            final List<Record> records = new ArrayList<>();
+            records.add(Record.of(key(0), value(0, 0)));
+            records.add(Record.of(key(1), value(1, 0)));
+            records.add(Record.of(key(KEYS), value(KEYS, 0)));
+            for (int i = 2; i < KEYS; i++) {
+                records.add(Record.of(key(i), value(i, 0)));
+            }
+            assertThrows(IllegalArgumentException.class, () -> dao.ingest(records.iterator()));
+            assertEquals(0, dao.getMetrics().getFileCount());
+            assertFalse(dao.iterator(key(0)).hasNext());
+        }
+        final String[] tables = data.list((dir, name) -> name.startsWith("DB"));
+        assertEquals(0, tables.length);
+    }
+
+    private static void assertOrdered(final DAO dao) throws IOException {
+        for (int i = 0; i < KEYS; i++) {
+            final int version = i % 3 == 0 ? 3 : 2;
+            assertEquals(value(i, version), dao.get(key(i)));
+        }
+        final Iterator<Record> records = dao.iterator(key(0));
+        for (int i = 0; i < KEYS; i++) {
+            assertTrue(records.hasNext());
+            assertEquals(value(i, i % 3 == 0 ? 3 : 2), records.next().getValue());
+        }
+        assertFalse(records.hasNext());
+    }
+
+    private static void assertRange(
+            final Iterator<Record> records,
+            final int from,
+            final int to,
+            final int version) {
+        for (int i = from; i < to; i++) {
+            assertTrue(records.hasNext());
+            final Record record = records.next();
+            assertEquals(key(i), record.getKey());
+            assertEquals(value(i, version), record.getValue());
+        }
+        assertFalse(records.hasNext());
+    }
+
+    private static Iterator<Record> records(
+            final int from,
+            final int to,
+            final int version) {
+        final List<Record> result = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            result.add(Record.of(key(i), value(i, version)));
+        }
+        return result.iterator();
+    }
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%05d", i).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static ByteBuffer value(
+            final int i,
+            final int version) {
+        return ByteBuffer.allocate(Long.BYTES * 2).putLong(0, i).putLong(Long.BYTES, version);
+    }
+}
@@ -0,0 +1,78 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Accuracy tests for {@link LatencyHistogram}.
+ */
+class LatencyHistogramTest {
+    private static final int VALUES = 100_000;
+
+    @Test
+    void percentilesWithinPrecision() {
+        final Random random = new Random(0);
+        final long[] values = new long[VALUES];
+        final LatencyHistogram first = new LatencyHistogram();
+        final LatencyHistogram second = new LatencyHistogram();
+        for (int i = 0; i < VALUES; i++) {
+            // Log-uniform from nanoseconds to seconds
+            values[i] = (long) Math.pow(10, random.nextDouble() * 9);
+            (i % 2 == 0 ? first : second).record(values[i]);
+        }
+        first.add(second);
+        Arrays.sort(values);
+
+        assertEquals(VALUES, first.getCount());
+        assertEquals(values[VALUES - 1], first.getMax());
+        for (final double percentile : new double[]{1, 50, 90, 99, 99.9, 100}) {
+            final long expected = values[(int) Math.ceil(percentile / 100 * VALUES) - 1];
+            final long actual = first.percentile(percentile);
+            assertTrue(actual >= expected, percentile + ": " + actual + " < " + expected);
+            assertTrue(actual <= expected + expected / 100, percentile + ": " + actual + " >> " + expected);
+        }
+    }
+
+    @Test
+    void smallValuesAreExact() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(49, histogram.percentile(50));
+        assertEquals(99, histogram.percentile(100));
+        assertEquals(49.5, histogram.getMean(), 1e-9);
+    }
+
+    @Test
+    void recordConcurrently() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t;
+            threads.add(new Thread(() -> {
+                // Every thread hits the same buckets
+                for (int i = 0; i < VALUES; i++) {
+                    histogram.record(i % 100 + offset);
+                }
+            }));
+        }
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(4L * VALUES, histogram.getCount());
+        assertEquals(102, histogram.getMax());
+        assertEquals(102, histogram.percentile(100));
+        assertEquals(0, histogram.percentile(0));
+    }
+}
@@ -0,0 +1,104 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.prohladenn.Config;
+import ru.mail.polis.prohladenn.LSMDao;
+import ru.mail.polis.prohladenn.LeveledStrategy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Leveled compaction tests for {@link ru.mail.polis.prohladenn.LSMDao}.
+ */
+class LeveledCompactionTest extends TestBase {
+    private static final int KEYS = 2000;
+
+    @NotNull
+    private static DAO open(@NotNull final File data) throws IOException {
+        final Config config = Config.builder()
+                .flushThreshold(64 * 1024)
+                .compactionStrategy(new LeveledStrategy(2, 256 * 1024, 4, 64 * 1024))
+                .build();
+        return new LSMDao(data, config, false);
+    }
+
+    @Test
+    void overwritesAndRemoves(@TempDir File data) throws IOException {
+        final Map<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        try (DAO dao = open(data)) {
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < KEYS; i++) {
+                    final ByteBuffer key = ByteBuffer.allocate(Integer.BYTES).putInt(0, i);
+                    if (round == 2 && i % 3 == 0) {
+                        dao.remove(key);
+                        expected.remove(key);
+                    } else {
+                        final ByteBuffer value = randomValue();
+                        dao.upsert(key, value);
+                        expected.put(key, value);
+                    }
+                }
+            }
+            check(dao, expected);
+        }
+
+        // Levels and key ranges survive a restart
+        try (DAO dao = open(data)) {
+            check(dao, expected);
+            dao.compact();
+            check(dao, expected);
+        }
+
+        try (DAO dao = open(data)) {
+            check(dao, expected);
+        }
+    }
+
+    @Test
+    void deeperLevels(@TempDir File data) throws IOException {
+        try (DAO dao = open(data)) {
+            for (int i = 0; i < KEYS * 2; i++) {
+                dao.upsert(randomKey(), randomValue());
+            }
+        }
+        final String[] names = data.list();
+        assertTrue(names != null && names.length > 0);
+        boolean leveled = false;
+        for (final String name : names) {
+            leveled |= name.contains("_L");
+        }
+        assertTrue(leveled);
+    }
+
+    private static void check(
+            @NotNull final DAO dao,
+            @NotNull final Map<ByteBuffer, ByteBuffer> expected) throws IOException {
+        final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+            assertTrue(records.hasNext());
+            final Record record = records.next();
+            assertEquals(entry.getKey(), record.getKey());
+            assertEquals(entry.getValue(), record.getValue());
+        }
+        assertFalse(records.hasNext());
+        for (int i = 0; i < KEYS; i += 3) {
+            final ByteBuffer key = ByteBuffer.allocate(Integer.BYTES).putInt(0, i);
+            if (!expected.containsKey(key)) {
+                assertThrows(NoSuchElementException.class, () -> dao.get(key));
+            }
+        }
+    }
+}
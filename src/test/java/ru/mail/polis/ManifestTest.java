@@ -0,0 +1,142 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.prohladenn.Config;
+import ru.mail.polis.prohladenn.LSMDao;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Recovery of the set of FileTables of {@link LSMDao} from its manifest.
+ */
+class ManifestTest extends TestBase {
+    private static final int TABLES = 5;
+    private static final int KEYS_PER_TABLE = 100;
+    private static final String MANIFEST = "MANIFEST";
+
+    @Test
+    void ignoreLeftovers(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .compactionStrategy(files -> null)
+                .build();
+        populate(data, config);
+
+        // Outputs of interrupted flushes and compactions
+        final File junk = new File(data, "DB1000.dat");
+        final File leveled = new File(data, "DB1001_L1.dat");
+        final File temp = new File(data, "DB1002.tmp");
+        Files.write(junk.toPath(), new byte[]{1, 2, 3});
+        Files.write(leveled.toPath(), new byte[0]);
+        Files.write(temp.toPath(), new byte[]{4});
+
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            assertEquals(TABLES, dao.getMetrics().getFileCount());
+            assertAll(dao.iterator(key(0)));
+        }
+        assertFalse(junk.exists());
+        assertFalse(leveled.exists());
+        assertFalse(temp.exists());
+    }
+
+    @Test
+    void surviveCompaction(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .compactionStrategy(files -> null)
+                .build();
+        populate(data, config);
+
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            dao.compact();
+            assertEquals(1, dao.getMetrics().getFileCount());
+        }
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            assertEquals(1, dao.getMetrics().getFileCount());
+            assertAll(dao.iterator(key(0)));
+            for (int i = 0; i < TABLES * KEYS_PER_TABLE; i++) {
+                assertEquals(value(i), dao.get(key(i)));
+            }
+        }
+    }
+
+    @Test
+    void ignoreTornTail(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .compactionStrategy(files -> null)
+                .build();
+        populate(data, config);
+
+        // A partially written edit
+        Files.write(
+                new File(data, MANIFEST).toPath(),
+                new byte[]{0, 0, 1, 0, 7, 7},
+                StandardOpenOption.APPEND);
+
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            assertEquals(TABLES, dao.getMetrics().getFileCount());
+            assertAll(dao.iterator(key(0)));
+        }
+    }
+
+    @Test
+    void createForExistingTables(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .compactionStrategy(files -> null)
+                .build();
+        populate(data, config);
+
+        // As written before the manifest was introduced
+        final File manifest = new File(data, MANIFEST);
+        Files.delete(manifest.toPath());
+
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            assertEquals(TABLES, dao.getMetrics().getFileCount());
+            assertAll(dao.iterator(key(0)));
+        }
+        assertTrue(manifest.exists());
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            assertEquals(TABLES, dao.getMetrics().getFileCount());
+            assertAll(dao.iterator(key(0)));
+        }
+    }
+
+    private static void populate(
+            final File data,
+            final Config config) throws IOException {
+        for (int table = 0; table < TABLES; table++) {
+            try (DAO dao = new LSMDao(data, config, false)) {
+                for (int i = table; i < TABLES * KEYS_PER_TABLE; i += TABLES) {
+                    dao.upsert(key(i), value(i));
+                }
+            }
+        }
+    }
+
+    private static void assertAll(final Iterator<Record> records) {
+        for (int i = 0; i < TABLES * KEYS_PER_TABLE; i++) {
+            assertTrue(records.hasNext());
+            final Record record = records.next();
+            assertEquals(key(i), record.getKey());
+            assertEquals(value(i), record.getValue());
+        }
+        assertFalse(records.hasNext());
+    }
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%05d", i).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static ByteBuffer value(final int i) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(0, -i);
+    }
+}
@@ -0,0 +1,108 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.prohladenn.Config;
+import ru.mail.polis.prohladenn.LSMDao;
+import ru.mail.polis.prohladenn.MemoryBudget;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * MemTable accounting and memory budget tests for {@link LSMDao}.
+ */
+class MemoryBudgetTest extends TestBase {
+    private static final int KEYS = 10_000;
+
+    @Test
+    void budgetSizesConfig() {
+        final Config config = Config.builder()
+                .maxImmutableMemTables(3)
+                .memoryBudget(new MemoryBudget(8 * 1024 * 1024, 0))
+                .build();
+        assertEquals(2 * 1024 * 1024, config.getFlushThreshold());
+        assertNull(config.getBlockCache());
+
+        final MemoryBudget heap = MemoryBudget.ofHeap();
+        assertEquals(Runtime.getRuntime().maxMemory() / 4, heap.getMemTables());
+        assertNotSame(heap, MemoryBudget.ofHeap());
+    }
+
+    @Test
+    void shareBetweenStorages(@TempDir File root) throws IOException {
+        final File first = new File(root, "first");
+        final File second = new File(root, "second");
+        final File snapshot = new File(root, "snapshot");
+        assertTrue(first.mkdir() && second.mkdir() && snapshot.mkdir());
+        final MemoryBudget budget = new MemoryBudget(8 * 1024 * 1024, 1024 * 1024);
+        final Config config = Config.builder()
+                .maxImmutableMemTables(1)
+                .memoryBudget(budget)
+                .build();
+        final Config other = Config.builder()
+                .maxImmutableMemTables(1)
+                .memoryBudget(budget)
+                .build();
+        assertNotNull(config.getBlockCache());
+        assertSame(config.getBlockCache(), other.getBlockCache());
+
+        final LSMDao dao = new LSMDao(first, config, false);
+        assertEquals(4 * 1024 * 1024, config.getFlushThreshold());
+        final LSMDao neighbour = new LSMDao(second, other, false);
+        assertEquals(2, budget.getStorages());
+        assertEquals(2 * 1024 * 1024, config.getFlushThreshold());
+        assertEquals(2 * 1024 * 1024, other.getFlushThreshold());
+
+        // Snapshots don't write, so they leave the MemTable share to the storages
+        final LSMDao readOnly = new LSMDao(snapshot, config, true);
+        assertEquals(2, budget.getStorages());
+        readOnly.close();
+        assertEquals(2, budget.getStorages());
+
+        neighbour.close();
+        assertEquals(4 * 1024 * 1024, config.getFlushThreshold());
+        dao.close();
+        assertEquals(0, budget.getStorages());
+    }
+
+    @Test
+    void tinyCellsAccountOverhead(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .flushThreshold(Long.MAX_VALUE)
+                .build();
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            for (int i = 0; i < KEYS; i++) {
+                dao.upsert(ByteBuffer.allocate(Integer.BYTES).putInt(0, i), ByteBuffer.allocate(1));
+            }
+
+            // Payload is 5 bytes, while nodes, Values, buffers and array headers take much more
+            final long perCell = dao.getMetrics().getMemTableBytes() / KEYS;
+            assertTrue(perCell > 150, "Accounted " + perCell + " bytes per cell");
+            assertTrue(perCell < 300, "Accounted " + perCell + " bytes per cell");
+        }
+    }
+
+    @Test
+    void stayWithinBudget(@TempDir File data) throws IOException {
+        final MemoryBudget budget = new MemoryBudget(1024 * 1024, 0);
+        final Config config = Config.builder()
+                .memoryBudget(budget)
+                .build();
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            for (int i = 0; i < 10 * KEYS; i++) {
+                dao.upsert(ByteBuffer.allocate(Integer.BYTES).putInt(0, i), ByteBuffer.allocate(1));
+                assertTrue(dao.getMetrics().getMemTableBytes() <= budget.getMemTables() + 1024);
+            }
+            assertTrue(dao.getMetrics().getFlushes() > 0);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.prohladenn.Config;
+import ru.mail.polis.prohladenn.LSMDao;
+import ru.mail.polis.prohladenn.Metrics;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Metrics tests for {@link LSMDao}.
+ */
+class MetricsTest extends TestBase {
+    private static final int KEYS = 1000;
+    private static final int REMOVED = 100;
+
+    @Test
+    void countsEvents(@TempDir File data) throws Exception {
+        final Config config = Config.builder()
+                .flushThreshold(64 * 1024)
+                .jmx(true)
+                .build();
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName pattern = new ObjectName("ru.mail.polis.prohladenn:type=LSMDao,*");
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            final Metrics metrics = dao.getMetrics();
+            final List<ByteBuffer> keys = new ArrayList<>(KEYS);
+            for (int i = 0; i < KEYS; i++) {
+                final ByteBuffer key = randomKey();
+                keys.add(key);
+                dao.upsert(key, randomValue());
+            }
+            for (int i = 0; i < REMOVED; i++) {
+                dao.remove(keys.get(i));
+            }
+            assertEquals(KEYS, metrics.getUpsertLatency().getCount());
+            assertEquals(REMOVED, metrics.getRemoveLatency().getCount());
+            assertTrue(metrics.getFlushes() > 0);
+            assertTrue(metrics.getFlushedBytes() > 0);
+            assertTrue(metrics.getFileCount() > 0);
+
+            // Every removed key is skipped once
+            final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+            int count = 0;
+            while (records.hasNext()) {
+                records.next();
+                count++;
+            }
+            assertEquals(KEYS - REMOVED, count);
+            assertEquals(REMOVED, metrics.getTombstonesScanned());
+            assertEquals(1, metrics.getIteratorLatency().getCount());
+
+            dao.compact();
+            assertTrue(metrics.getCompactions() > 0);
+            assertTrue(metrics.getCompactionBytesRead() > metrics.getCompactionBytesWritten());
+            assertEquals(1, metrics.getFileCount());
+            assertEquals(metrics.getFileCount(), metrics.getFilesPerLevel()[0]);
+            assertTrue(metrics.getBytesPerLevel()[0] > 0);
+            assertEquals(0, metrics.getMemTableBytes());
+
+            // Hits read a block each, most misses are stopped by the Bloom filter
+            for (int i = REMOVED; i < KEYS; i++) {
+                assertTrue(dao.get(keys.get(i)).hasRemaining());
+            }
+            assertEquals(KEYS - REMOVED, metrics.getBlocksRead());
+            for (int i = 0; i < KEYS; i++) {
+                assertThrows(NoSuchElementException.class, () -> dao.get(randomKey()));
+            }
+            assertEquals(2 * KEYS - REMOVED, metrics.getGetLatency().getCount());
+            assertTrue(metrics.getBloomNegatives() > KEYS * 9 / 10);
+            assertEquals(metrics.getBloomFalsePositives(), metrics.getBlocksRead() - (KEYS - REMOVED));
+            assertTrue(metrics.getGetLatency().getP50() <= metrics.getGetLatency().getP99());
+
+            // The same over JMX
+            final Set<ObjectName> names = server.queryNames(pattern, null);
+            assertEquals(1, names.size());
+            final ObjectName name = names.iterator().next();
+            assertEquals(metrics.getFileCount(), server.getAttribute(name, "FileCount"));
+            final CompositeData latency = (CompositeData) server.getAttribute(name, "GetLatency");
+            assertEquals(metrics.getGetLatency().getCount(), latency.get("count"));
+        }
+        assertTrue(server.queryNames(pattern, null).isEmpty());
+    }
+}
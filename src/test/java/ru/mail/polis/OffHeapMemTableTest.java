@@ -0,0 +1,141 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.prohladenn.Config;
+import ru.mail.polis.prohladenn.LSMDao;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Off-heap MemTable tests for {@link LSMDao}.
+ */
+class OffHeapMemTableTest extends TestBase {
+    private static final int OPERATIONS = 20_000;
+
+    @Test
+    void matchesModel(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .flushThreshold(Long.MAX_VALUE)
+                .offHeapMemTables(true)
+                .build();
+        final NavigableMap<ByteBuffer, ByteBuffer> model = new TreeMap<>();
+        final Random random = new Random(19);
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            for (int i = 0; i < OPERATIONS; i++) {
+                final ByteBuffer key = key(random.nextInt(OPERATIONS / 4));
+                if (random.nextInt(4) == 0) {
+                    dao.remove(key);
+                    model.remove(key);
+                } else {
+                    final ByteBuffer value = randomBuffer(1 + random.nextInt(64));
+                    dao.upsert(key, value);
+                    model.put(key, value);
+                }
+            }
+
+            // Larger than an arena chunk
+            final ByteBuffer huge = randomBuffer(3 * 1024 * 1024);
+            dao.upsert(key(0), huge);
+            model.put(key(0), huge);
+
+            // Empty keys and values
+            dao.upsert(ByteBuffer.allocate(0), ByteBuffer.allocate(0));
+            model.put(ByteBuffer.allocate(0), ByteBuffer.allocate(0));
+
+            assertEquals(0, dao.getMetrics().getFlushes());
+            assertSame(model, dao);
+        }
+
+        // Flushed on close
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            assertSame(model, dao);
+        }
+    }
+
+    @Test
+    void concurrentReaders(@TempDir File data) throws Exception {
+        final Config config = Config.builder()
+                .flushThreshold(4 * 1024 * 1024)
+                .offHeapMemTables(true)
+                .build();
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            final List<Future<?>> readers = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                readers.add(executor.submit(() -> {
+                    while (writing.get()) {
+                        // Keys are written with values equal to them and come sorted
+                        ByteBuffer previous = null;
+                        final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+                        while (records.hasNext()) {
+                            final Record record = records.next();
+                            assertEquals(record.getKey(), record.getValue());
+                            if (previous != null) {
+                                assertTrue(previous.compareTo(record.getKey()) < 0);
+                            }
+                            previous = record.getKey();
+                        }
+                    }
+                    return null;
+                }));
+            }
+
+            final Random random = new Random(7);
+            for (int i = 0; i < 5 * OPERATIONS; i++) {
+                final ByteBuffer key = key(random.nextInt());
+                dao.upsert(key, key);
+            }
+            writing.set(false);
+            for (final Future<?> reader : readers) {
+                reader.get();
+            }
+            assertTrue(dao.getMetrics().getFlushes() > 0);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(0, i);
+    }
+
+    private static void assertSame(
+            final NavigableMap<ByteBuffer, ByteBuffer> model,
+            final LSMDao dao) throws IOException {
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : model.entrySet()) {
+            assertEquals(entry.getValue(), dao.get(entry.getKey()));
+        }
+        assertThrows(NoSuchElementException.class, () -> dao.get(key(-1)));
+
+        final ByteBuffer from = key(OPERATIONS / 8);
+        final Iterator<Record> records = dao.iterator(from);
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : model.tailMap(from, true).entrySet()) {
+            assertTrue(records.hasNext());
+            final Record record = records.next();
+            assertEquals(entry.getKey(), record.getKey());
+            assertEquals(entry.getValue(), record.getValue());
+        }
+        assertFalse(records.hasNext());
+    }
+}
@@ -0,0 +1,91 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Crash recovery tests for {@link DAO} implementations.
+ * A crash is emulated by abandoning a storage without closing it,
+ * so the abandoned storage must have nothing to flush or compact in the background.
+ */
+class RecoveryTest extends TestBase {
+    @Test
+    void upsertWithoutClose(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomValue();
+
+        final DAO crashed = DAOFactory.create(data);
+        crashed.upsert(key, value);
+
+        try (DAO dao = DAOFactory.create(data)) {
+            assertEquals(value, dao.get(key));
+        }
+    }
+
+    @Test
+    void removeWithoutClose(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomValue();
+
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(key, value);
+        }
+
+        final DAO crashed = DAOFactory.create(data);
+        crashed.remove(key);
+
+        try (DAO dao = DAOFactory.create(data)) {
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+        }
+    }
+
+    @Test
+    void flushedAndBuffered(@TempDir File data) throws IOException {
+        final int valueSize = 1024 * 1024;
+        final int keyCount = 4;
+        final ByteBuffer value = randomBuffer(valueSize);
+        final List<ByteBuffer> keys = new ArrayList<>(keyCount);
+        for (int i = 0; i < keyCount; i++) {
+            keys.add(randomKey());
+        }
+
+        try (DAO dao = DAOFactory.create(data)) {
+            for (final ByteBuffer key : keys) {
+                dao.upsert(key, join(key, value));
+            }
+        }
+
+        // Overwrite half of the keys staying below the flush threshold
+        final ByteBuffer update = randomValue();
+        final DAO crashed = DAOFactory.create(data);
+        for (final ByteBuffer key : keys.subList(0, keyCount / 2)) {
+            crashed.upsert(key, update);
+        }
+
+        try (DAO dao = DAOFactory.create(data)) {
+            for (final ByteBuffer key : keys.subList(0, keyCount / 2)) {
+                assertEquals(update, dao.get(key));
+            }
+            for (final ByteBuffer key : keys.subList(keyCount / 2, keyCount)) {
+                assertEquals(join(key, value), dao.get(key));
+            }
+        }
+
+        // Recovered records are not replayed twice
+        try (DAO dao = DAOFactory.create(data)) {
+            for (final ByteBuffer key : keys.subList(0, keyCount / 2)) {
+                assertEquals(update, dao.get(key));
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.prohladenn.Codec;
+import ru.mail.polis.prohladenn.Config;
+import ru.mail.polis.prohladenn.LSMDao;
+import ru.mail.polis.prohladenn.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Lazy opening and bounded mapping of FileTables by {@link LSMDao}.
+ */
+class TableCacheTest extends TestBase {
+    private static final int TABLES = 20;
+    private static final int KEYS_PER_TABLE = 100;
+
+    @Test
+    void mapFewTables(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .compactionStrategy(files -> null)
+                .maxOpenTables(3)
+                .build();
+        populate(data, config);
+
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            final Metrics metrics = dao.getMetrics();
+            assertEquals(TABLES, metrics.getFileCount());
+            assertEquals(0, metrics.getMappedTables());
+
+            for (int i = 0; i < TABLES * KEYS_PER_TABLE; i++) {
+                assertEquals(value(i), dao.get(key(i)));
+                assertTrue(metrics.getMappedTables() <= 3);
+            }
+            assertTrue(metrics.getTableOpens() >= TABLES);
+            assertTrue(metrics.getTableEvictions() > 0);
+
+            assertAll(dao.iterator(key(0)));
+        }
+    }
+
+    @Test
+    void readConcurrently(@TempDir File data) throws Exception {
+        final Config config = Config.builder()
+                .compactionStrategy(files -> null)
+                .maxOpenTables(2)
+                .build();
+        populate(data, config);
+
+        // Tables are mapped outside the lock, so racing loads must still keep the cache bounded
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            final List<Future<?>> readers = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final int offset = t;
+                readers.add(executor.submit(() -> {
+                    for (int i = 0; i < TABLES * KEYS_PER_TABLE; i++) {
+                        final int k = (i * 7 + offset) % (TABLES * KEYS_PER_TABLE);
+                        assertEquals(value(k), dao.get(key(k)));
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> reader : readers) {
+                reader.get(1, TimeUnit.MINUTES);
+            }
+            assertTrue(dao.getMetrics().getMappedTables() <= 2);
+            assertAll(dao.iterator(key(0)));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void readAcrossCompaction(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .compactionStrategy(files -> null)
+                .maxOpenTables(1)
+                .build();
+        populate(data, config);
+
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            // Tables not mapped yet are read after compaction deletes them
+            final Iterator<Record> records = dao.iterator(key(0));
+            dao.compact();
+            assertEquals(1, dao.getMetrics().getFileCount());
+            assertAll(records);
+            assertAll(dao.iterator(key(0)));
+        }
+    }
+
+    @Test
+    void keepCachedOnFailedCompaction(@TempDir File data) throws IOException {
+        populate(data, Config.builder().compactionStrategy(files -> null).build());
+
+        // Tables are read uncompressed, while the merge fails to compress its first block
+        final Codec failing = new Codec() {
+            @Override
+            public int getId() {
+                return 100;
+            }
+
+            @Override
+            public ByteBuffer compress(final ByteBuffer raw) {
+                throw new IllegalStateException("Can't compress");
+            }
+
+            @Override
+            public void decompress(
+                    final ByteBuffer compressed,
+                    final ByteBuffer raw) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        final Config config = Config.builder()
+                .compactionStrategy(files -> null)
+                .maxOpenTables(1)
+                .compression(failing)
+                .build();
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            final Metrics metrics = dao.getMetrics();
+            assertThrows(IOException.class, dao::compact);
+            assertEquals(TABLES, metrics.getFileCount());
+
+            // The inputs are still mapped through the cache rather than pinned
+            final long opens = metrics.getTableOpens();
+            assertAll(dao.iterator(key(0)));
+            for (int i = 0; i < TABLES * KEYS_PER_TABLE; i++) {
+                assertEquals(value(i), dao.get(key(i)));
+            }
+            assertTrue(metrics.getTableOpens() - opens >= TABLES);
+            assertEquals(1, metrics.getMappedTables());
+        }
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            assertAll(dao.iterator(key(0)));
+        }
+    }
+
+    private static void populate(
+            final File data,
+            final Config config) throws IOException {
+        for (int table = 0; table < TABLES; table++) {
+            try (DAO dao = new LSMDao(data, config, false)) {
+                for (int i = table; i < TABLES * KEYS_PER_TABLE; i += TABLES) {
+                    dao.upsert(key(i), value(i));
+                }
+            }
+        }
+    }
+
+    private static void assertAll(final Iterator<Record> records) {
+        for (int i = 0; i < TABLES * KEYS_PER_TABLE; i++) {
+            assertTrue(records.hasNext());
+            final Record record = records.next();
+            assertEquals(key(i), record.getKey());
+            assertEquals(value(i), record.getValue());
+        }
+        assertFalse(records.hasNext());
+    }
+
+    private static ByteBuffer key(final int i) {
+        // Keys are compared as signed bytes, so digits keep them in numeric order
+        return ByteBuffer.wrap(String.format("%05d", i).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static ByteBuffer value(final int i) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(0, -i);
+    }
+}
@@ -0,0 +1,92 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.prohladenn.Config;
+import ru.mail.polis.prohladenn.LSMDao;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Ordering of writes of {@link LSMDao} against stored data newer than the wall clock.
+ */
+class TimestampTest extends TestBase {
+    // [long magic] of a commit log segment, then [int size][int crc32c] of the first record
+    private static final int FIRST_RECORD = Long.BYTES;
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES * 2;
+
+    @Test
+    void stayNewerThanStored(@TempDir File root) throws IOException {
+        final File data = new File(root, "data");
+        final File crashed = new File(root, "crashed");
+        assertTrue(data.mkdir() && crashed.mkdir());
+        final Config config = Config.builder()
+                .flushThreshold(Long.MAX_VALUE)
+                .build();
+        final ByteBuffer key = ByteBuffer.wrap("key".getBytes(StandardCharsets.US_ASCII));
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            dao.upsert(key, value(1));
+
+            // What is left on disk by a crash
+            for (final File file : data.listFiles()) {
+                Files.copy(file.toPath(), new File(crashed, file.getName()).toPath());
+            }
+        }
+
+        // Written by a run whose wall clock was an hour ahead
+        File log = null;
+        for (final File file : crashed.listFiles()) {
+            if (file.getName().startsWith("WAL")) {
+                log = file;
+            }
+        }
+        assertNotNull(log);
+        final ByteBuffer segment = ByteBuffer.wrap(Files.readAllBytes(log.toPath()));
+        final int size = segment.getInt(FIRST_RECORD);
+        final int timestamp = FIRST_RECORD + RECORD_HEADER_SIZE + Integer.BYTES + key.remaining();
+        segment.putLong(timestamp, segment.getLong(timestamp) + TimeUnit.HOURS.toNanos(1));
+        final CRC32C crc = new CRC32C();
+        crc.update(segment.duplicate().position(FIRST_RECORD + RECORD_HEADER_SIZE).limit(
+                FIRST_RECORD + RECORD_HEADER_SIZE + size));
+        segment.putInt(FIRST_RECORD + Integer.BYTES, (int) crc.getValue());
+        Files.write(log.toPath(), segment.array());
+
+        try (LSMDao dao = new LSMDao(crashed, config, false)) {
+            assertEquals(value(1), dao.get(key));
+            dao.upsert(key, value(2));
+            assertLatest(dao, key, value(2));
+        }
+        try (LSMDao dao = new LSMDao(crashed, config, false)) {
+            assertLatest(dao, key, value(2));
+            dao.compact();
+            assertLatest(dao, key, value(2));
+        }
+    }
+
+    private static void assertLatest(
+            final DAO dao,
+            final ByteBuffer key,
+            final ByteBuffer value) throws IOException {
+        assertEquals(value, dao.get(key));
+
+        // Iterators merge tables by timestamps
+        final Iterator<Record> records = dao.iterator(key);
+        assertTrue(records.hasNext());
+        assertEquals(value, records.next().getValue());
+    }
+
+    private static ByteBuffer value(final int i) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(0, i);
+    }
+}
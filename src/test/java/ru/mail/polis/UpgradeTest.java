@@ -0,0 +1,130 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Opening storages written in the original FileTable format.
+ */
+class UpgradeTest extends TestBase {
+    private static final int KEYS = 1000;
+
+    @Test
+    void openOriginal(@TempDir File data) throws IOException {
+        // Timestamps of the original format were taken from System.nanoTime().
+        // The older table holds every key, the newer one replaces even and removes odd ones
+        final File older = new File(data, "DB0.dat");
+        final File newer = new File(data, "DB1.dat");
+        final ByteBuffer olderTable = ByteBuffer.allocate(tableSize(KEYS, 0));
+        final ByteBuffer newerTable = ByteBuffer.allocate(tableSize(KEYS / 2, KEYS / 2));
+        final int[] offsets = new int[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            offsets[i] = olderTable.position();
+            putCell(olderTable, key(i), 1L, value(i, 0));
+        }
+        finish(olderTable, offsets, KEYS);
+        for (int i = 0; i < KEYS; i++) {
+            offsets[i] = newerTable.position();
+            putCell(newerTable, key(i), 2L, i % 2 == 0 ? value(i, 1) : null);
+        }
+        finish(newerTable, offsets, KEYS);
+        Files.write(older.toPath(), olderTable.array());
+        Files.write(newer.toPath(), newerTable.array());
+
+        try (DAO dao = DAOFactory.create(data)) {
+            assertUpgraded(dao);
+            dao.upsert(key(1), value(1, 2));
+        }
+        assertNotEquals(olderTable.capacity(), older.length());
+        try (DAO dao = DAOFactory.create(data)) {
+            assertEquals(value(1, 2), dao.get(key(1)));
+            dao.remove(key(1));
+            assertUpgraded(dao);
+            dao.compact();
+            assertUpgraded(dao);
+        }
+    }
+
+    @Test
+    void rejectUnknown(@TempDir File data) throws IOException {
+        Files.write(new File(data, "DB0.dat").toPath(), new byte[]{0, 0, 0, 1});
+        assertThrows(IOException.class, () -> DAOFactory.create(data));
+    }
+
+    private static void assertUpgraded(final DAO dao) throws IOException {
+        final Iterator<Record> records = dao.iterator(key(0));
+        for (int i = 0; i < KEYS; i += 2) {
+            assertEquals(value(i, 1), dao.get(key(i)));
+            assertTrue(records.hasNext());
+            final Record record = records.next();
+            assertEquals(key(i), record.getKey());
+            assertEquals(value(i, 1), record.getValue());
+        }
+        assertFalse(records.hasNext());
+        assertThrows(NoSuchElementException.class, () -> dao.get(key(1)));
+    }
+
+    /**
+     * Size of a table of cells {@code [int keySize][key][long timestamp][int valueSize][value]},
+     * where a negative timestamp marks a tombstone, followed by int offsets of the cells and their count.
+     */
+    private static int tableSize(
+            final int values,
+            final int tombstones) {
+        final int cell = Integer.BYTES + key(0).remaining() + Long.BYTES;
+        return values * (cell + Integer.BYTES + value(0, 0).remaining())
+                + tombstones * cell
+                + Integer.BYTES * (values + tombstones + 1);
+    }
+
+    private static void putCell(
+            final ByteBuffer table,
+            final ByteBuffer key,
+            final long timestamp,
+            final ByteBuffer value) {
+        table.putInt(key.remaining());
+        table.put(key);
+        if (value == null) {
+            table.putLong(-timestamp);
+        } else {
+            table.putLong(timestamp);
+            table.putInt(value.remaining());
+            table.put(value);
+        }
+    }
+
+    private static void finish(
+            final ByteBuffer table,
+            final int[] offsets,
+            final int count) {
+        for (int i = 0; i < count; i++) {
+            table.putInt(offsets[i]);
+        }
+        table.putInt(count);
+        assertFalse(table.hasRemaining());
+    }
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%05d", i).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static ByteBuffer value(
+            final int i,
+            final int version) {
+        return ByteBuffer.allocate(Long.BYTES * 2).putLong(0, i).putLong(Long.BYTES, version);
+    }
+}
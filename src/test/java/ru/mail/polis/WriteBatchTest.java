@@ -0,0 +1,121 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.prohladenn.Config;
+import ru.mail.polis.prohladenn.LSMDao;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Batch writes of {@link LSMDao}.
+ */
+class WriteBatchTest extends TestBase {
+    private static final int KEYS = 1000;
+
+    @Test
+    void applyInOrder(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .flushThreshold(64 * 1024)
+                .build();
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            dao.upsert(key(0), value(-1));
+            final WriteBatch batch = new WriteBatch();
+            for (int i = 0; i < KEYS; i++) {
+                batch.upsert(key(i), value(i));
+            }
+            for (int i = 0; i < KEYS; i += 2) {
+                batch.remove(key(i));
+            }
+            batch.upsert(key(2), value(-2));
+            dao.write(batch);
+            assertEquals(1, dao.getMetrics().getBatchLatency().getCount());
+
+            // The batch froze the MemTable, which may be flushed already
+            assertTrue(dao.getMetrics().getFrozenMemTables() + dao.getMetrics().getFlushes() > 0);
+            assertBatch(dao);
+        }
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            assertBatch(dao);
+        }
+    }
+
+    @Test
+    void recoverEntirely(@TempDir File root) throws IOException {
+        final File data = new File(root, "data");
+        final File crashed = new File(root, "crashed");
+        assertTrue(data.mkdir() && crashed.mkdir());
+        final Config config = Config.builder()
+                .flushThreshold(Long.MAX_VALUE)
+                .build();
+        try (LSMDao dao = new LSMDao(data, config, false)) {
+            final WriteBatch batch = new WriteBatch(KEYS);
+            for (int i = 0; i < KEYS; i++) {
+                batch.upsert(key(i), value(i));
+            }
+            dao.write(batch);
+            batch.clear();
+            for (int i = 0; i < KEYS; i++) {
+                batch.remove(key(i));
+            }
+            dao.write(batch);
+
+            // What is left on disk by a crash
+            for (final File file : data.listFiles()) {
+                Files.copy(file.toPath(), new File(crashed, file.getName()).toPath());
+            }
+        }
+
+        // Tear the last batch
+        File log = null;
+        for (final File file : crashed.listFiles()) {
+            if (file.getName().startsWith("WAL")) {
+                log = file;
+            }
+        }
+        assertNotNull(log);
+        try (RandomAccessFile raf = new RandomAccessFile(log, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+
+        try (LSMDao dao = new LSMDao(crashed, config, false)) {
+            for (int i = 0; i < KEYS; i++) {
+                assertEquals(value(i), dao.get(key(i)));
+            }
+        }
+    }
+
+    private static void assertBatch(final DAO dao) throws IOException {
+        assertEquals(value(-2), dao.get(key(2)));
+        for (int i = 3; i < KEYS; i++) {
+            final ByteBuffer key = key(i);
+            if (i % 2 == 0) {
+                assertThrows(NoSuchElementException.class, () -> dao.get(key));
+            } else {
+                assertEquals(value(i), dao.get(key));
+            }
+        }
+        assertThrows(NoSuchElementException.class, () -> dao.get(key(0)));
+    }
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%05d", i).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static ByteBuffer value(final int i) {
+        final ByteBuffer result = ByteBuffer.allocate(256);
+        result.putInt(0, i);
+        return result;
+    }
+}
@@ -0,0 +1,67 @@
+package ru.mail.polis.prohladenn;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Accuracy of {@link BloomFilter}.
+ */
+class BloomFilterTest {
+    private static final int KEYS = 100_000;
+    private static final int BITS_PER_KEY = 10;
+
+    @Test
+    void noFalseNegatives() {
+        final BloomFilter filter = create(0, KEYS, BITS_PER_KEY);
+        final BloomFilter read = BloomFilter.read(filter.toBuffer(), filter.getHashes());
+        assertEquals(filter.getWordCount(), read.getWordCount());
+        for (int i = 0; i < KEYS; i++) {
+            assertTrue(filter.mightContain(key(i)));
+            assertTrue(read.mightContain(key(i)));
+        }
+    }
+
+    @Test
+    void falsePositiveRate() {
+        final BloomFilter filter = create(0, KEYS, BITS_PER_KEY);
+        int positives = 0;
+        for (int i = KEYS; i < KEYS * 2; i++) {
+            if (filter.mightContain(key(i))) {
+                positives++;
+            }
+        }
+
+        // About 0.6185^10 = 0.8%
+        final double rate = (double) positives / KEYS;
+        assertTrue(rate < 0.015, "False positive rate " + rate);
+    }
+
+    @Test
+    void emptyMatchesAll() {
+        final BloomFilter filter = create(0, KEYS, 0);
+        assertEquals(0, filter.getWordCount());
+        for (int i = KEYS; i < KEYS * 2; i++) {
+            assertTrue(filter.mightContain(key(i)));
+        }
+    }
+
+    private static BloomFilter create(
+            final int from,
+            final int to,
+            final int bitsPerKey) {
+        final long[] hashes = new long[to - from];
+        for (int i = from; i < to; i++) {
+            hashes[i - from] = BloomFilter.hash(key(i));
+        }
+        return BloomFilter.create(hashes, hashes.length, bitsPerKey);
+    }
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%08d", i).getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,100 @@
+package ru.mail.polis.prohladenn;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * {@link Bytes#compare} against a byte by byte comparison.
+ */
+class BytesTest {
+    private static final int ROUNDS = 100_000;
+    private static final int MAX_LENGTH = 40;
+    private static final int MAX_OFFSET = 11;
+
+    @Test
+    void matchNaive() {
+        final Random random = new Random(0);
+        for (int round = 0; round < ROUNDS; round++) {
+            final byte[] a = new byte[random.nextInt(MAX_LENGTH + 1)];
+            random.nextBytes(a);
+            final byte[] b;
+            if (random.nextBoolean()) {
+                // Sharing a prefix of any length, differing right after it if at all
+                final int shared = random.nextInt(a.length + 1);
+                b = new byte[shared + random.nextInt(MAX_LENGTH - shared + 1)];
+                random.nextBytes(b);
+                System.arraycopy(a, 0, b, 0, shared);
+                if (random.nextBoolean() && shared < Math.min(a.length, b.length)) {
+                    b[shared] = (byte) (a[shared] ^ (random.nextBoolean() ? 0x80 : 1));
+                }
+            } else {
+                b = new byte[random.nextInt(MAX_LENGTH + 1)];
+                random.nextBytes(b);
+            }
+
+            final int aOffset = random.nextInt(MAX_OFFSET + 1);
+            final int bOffset = random.nextInt(MAX_OFFSET + 1);
+            final ByteBuffer x = place(random, a, aOffset);
+            final ByteBuffer y = place(random, b, bOffset);
+            final int expected = Integer.signum(naive(a, b));
+            assertEquals(expected, Integer.signum(Bytes.compare(x, aOffset, a.length, y, bOffset, b.length)));
+            assertEquals(-expected, Integer.signum(Bytes.compare(y, bOffset, b.length, x, aOffset, a.length)));
+            assertEquals(0, Bytes.compare(x, aOffset, a.length, x, aOffset, a.length));
+        }
+    }
+
+    @Test
+    void orderAsByteBuffers() {
+        final Random random = new Random(1);
+        for (int round = 0; round < ROUNDS; round++) {
+            final byte[] a = new byte[random.nextInt(MAX_LENGTH + 1)];
+            final byte[] b = new byte[random.nextInt(MAX_LENGTH + 1)];
+
+            // Few distinct bytes, so that ranges often share prefixes
+            for (int i = 0; i < a.length; i++) {
+                a[i] = (byte) (random.nextInt(3) - 1);
+            }
+            for (int i = 0; i < b.length; i++) {
+                b[i] = (byte) (random.nextInt(3) - 1);
+            }
+            assertEquals(
+                    Integer.signum(ByteBuffer.wrap(a).compareTo(ByteBuffer.wrap(b))),
+                    Integer.signum(Bytes.compare(ByteBuffer.wrap(a), 0, a.length, ByteBuffer.wrap(b), 0, b.length)));
+        }
+    }
+
+    /**
+     * Copies the bytes at the offset of a heap or direct buffer of any byte order,
+     * which is a slice of a larger array, so its offset in the array is not zero.
+     */
+    private static ByteBuffer place(
+            final Random random,
+            final byte[] bytes,
+            final int offset) {
+        final int arrayOffset = random.nextInt(MAX_OFFSET + 1);
+        final int size = arrayOffset + offset + bytes.length + random.nextInt(MAX_OFFSET + 1);
+        final ByteBuffer buffer = random.nextBoolean() ? ByteBuffer.allocate(size) : ByteBuffer.allocateDirect(size);
+        final byte[] noise = new byte[size];
+        random.nextBytes(noise);
+        buffer.put(noise).clear();
+        final ByteBuffer result = buffer.position(arrayOffset).slice();
+        result.duplicate().position(offset).put(bytes);
+        return result.order(random.nextBoolean() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int naive(
+            final byte[] a,
+            final byte[] b) {
+        for (int i = 0; i < Math.min(a.length, b.length); i++) {
+            if (a[i] != b[i]) {
+                return a[i] < b[i] ? -1 : 1;
+            }
+        }
+        return a.length - b.length;
+    }
+}
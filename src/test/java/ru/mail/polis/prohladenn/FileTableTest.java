@@ -0,0 +1,137 @@
+package ru.mail.polis.prohladenn;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round trips of cells through {@link FileTableWriter} and {@link FileTable} around block boundaries.
+ */
+class FileTableTest {
+    private static final int BLOCK_SIZE = 256;
+    private static final int KEY_SIZE = 8;
+
+    // A cell takes [key size][key][timestamp][value size][value] and an offset, 64 bytes,
+    // so a block is flushed right after its fourth cell
+    private static final int CELLS_PER_BLOCK = 4;
+    private static final int VALUE_SIZE = BLOCK_SIZE / CELLS_PER_BLOCK - Integer.BYTES * 3 - Long.BYTES - KEY_SIZE;
+
+    @Test
+    void singleCell(@TempDir File data) throws IOException {
+        roundTrip(data, 1, 1);
+    }
+
+    @Test
+    void fullBlock(@TempDir File data) throws IOException {
+        roundTrip(data, CELLS_PER_BLOCK, 1);
+    }
+
+    @Test
+    void cellOverBlock(@TempDir File data) throws IOException {
+        roundTrip(data, CELLS_PER_BLOCK + 1, 2);
+    }
+
+    @Test
+    void manyBlocks(@TempDir File data) throws IOException {
+        roundTrip(data, CELLS_PER_BLOCK * 50, 50);
+    }
+
+    private static void roundTrip(
+            final File data,
+            final int cells,
+            final int blocks) throws IOException {
+        for (final Codec codec : new Codec[]{null, new DeflateCodec(Deflater.BEST_SPEED)}) {
+            final BlockCache cache = new BlockCache(1024 * 1024, false);
+            final Config config = Config.builder()
+                    .blockSize(BLOCK_SIZE)
+                    .blockCache(cache)
+                    .compression(codec)
+                    .build();
+            final int fileId = codec == null ? 1 : 2;
+            final FileTable table = FileTable.create(
+                    cells(cells), new File(data, LSMDao.tempFileName(fileId)), fileId, 0, fileId, config);
+            try {
+                assertEquals(key(0), table.getMinKey());
+                assertEquals(key(cells - 1), table.getMaxKey());
+
+                // A full scan reads every block once
+                assertRange(table.iterator(ByteBuffer.allocate(0)), 0, cells);
+                assertEquals(blocks, cache.getMisses());
+
+                for (int i = 0; i < cells; i++) {
+                    // First keys of blocks, keys within them and the last ones
+                    assertEquals(value(i), table.get(key(i)).getData());
+                    assertRange(table.iterator(key(i)), i, cells);
+
+                    // Between this key and the next one, which may start the next block
+                    final ByteBuffer between = after(i);
+                    assertNull(table.get(between));
+                    assertRange(table.iterator(between), i + 1, cells);
+                }
+                assertRange(table.iterator(before()), 0, cells);
+                assertNull(table.get(before()));
+            } finally {
+                table.evict();
+            }
+        }
+    }
+
+    private static void assertRange(
+            final Iterator<Cell> iterator,
+            final int from,
+            final int to) {
+        for (int i = from; i < to; i++) {
+            assertTrue(iterator.hasNext());
+            final Cell cell = iterator.next();
+            assertEquals(key(i), cell.getKey());
+            assertEquals(i + 1, cell.getValue().getTimeStamp());
+            assertEquals(value(i), cell.getValue().getData());
+        }
+        assertFalse(iterator.hasNext());
+    }
+
+    private static Iterator<Cell> cells(final int count) {
+        final List<Cell> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(new Cell(key(i), new Value(i + 1, value(i))));
+        }
+        return result.iterator();
+    }
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%08d", i).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Returns a key greater than the i-th one and less than the next.
+     */
+    private static ByteBuffer after(final int i) {
+        return ByteBuffer.wrap(String.format("%08d!", i).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Returns a key less than all keys.
+     */
+    private static ByteBuffer before() {
+        return ByteBuffer.wrap("0000000".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static ByteBuffer value(final int i) {
+        final ByteBuffer result = ByteBuffer.allocate(VALUE_SIZE);
+        result.putInt(0, i);
+        return result;
+    }
+}
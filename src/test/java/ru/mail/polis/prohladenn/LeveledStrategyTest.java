@@ -0,0 +1,78 @@
+package ru.mail.polis.prohladenn;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Selection of {@link LeveledStrategy} from an oversized level.
+ */
+class LeveledStrategyTest {
+    private static final Config CONFIG = Config.builder().build();
+    private static final CompactionStrategy STRATEGY = new LeveledStrategy(4, 1000, 10, 1000);
+
+    @Test
+    void pickTablesInTurn() {
+        // Level 1 is over its target, so its tables go down one by one
+        final List<FileTable> files = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            files.add(table(i + 1, 1, i * 10, i * 10 + 9));
+        }
+        final Map<Integer, ByteBuffer> cursors = new HashMap<>();
+        assertEquals(List.of(files.get(0)), select(files, cursors));
+        assertEquals(List.of(files.get(1)), select(files, cursors));
+        assertEquals(List.of(files.get(2)), select(files, cursors));
+        assertEquals(List.of(files.get(0)), select(files, cursors));
+    }
+
+    @Test
+    void keepCursorsPerStorage() {
+        final List<FileTable> files = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            files.add(table(i + 1, 1, i * 10, i * 10 + 9));
+        }
+
+        // A storage sharing the strategy starts from the beginning of the level
+        final Map<Integer, ByteBuffer> first = new HashMap<>();
+        final Map<Integer, ByteBuffer> second = new HashMap<>();
+        assertEquals(List.of(files.get(0)), select(files, first));
+        assertEquals(List.of(files.get(1)), select(files, first));
+        assertEquals(List.of(files.get(0)), select(files, second));
+        assertEquals(List.of(files.get(0)), STRATEGY.select(files).getInputs());
+        assertEquals(List.of(files.get(2)), select(files, first));
+    }
+
+    private static List<FileTable> select(
+            final List<FileTable> files,
+            final Map<Integer, ByteBuffer> cursors) {
+        final Compaction compaction = STRATEGY.select(files, cursors);
+        assertNotNull(compaction);
+        assertEquals(2, compaction.getOutputLevel());
+        return compaction.getInputs();
+    }
+
+    /**
+     * Describes a table of 1000 bytes without writing it.
+     */
+    private static FileTable table(
+            final int generation,
+            final int level,
+            final int minKey,
+            final int maxKey) {
+        final Manifest.Entry entry = new Manifest.Entry(
+                generation, level, generation, 1000, Manifest.NO_CHECKSUM, key(minKey), key(maxKey));
+        return new FileTable(new File(entry.fileName()), entry, CONFIG);
+    }
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(0, i);
+    }
+}
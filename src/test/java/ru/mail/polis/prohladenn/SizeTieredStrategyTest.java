@@ -0,0 +1,101 @@
+package ru.mail.polis.prohladenn;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Selection of {@link SizeTieredStrategy} with the default thresholds and ratio.
+ */
+class SizeTieredStrategyTest {
+    private static final Config CONFIG = Config.builder().build();
+    private static final CompactionStrategy STRATEGY = new SizeTieredStrategy(4, 32, 1.5);
+
+    @Test
+    void bucketBySizeRatio() {
+        // Within 1.5 times the average of the bucket
+        final List<FileTable> similar = tables(1000, 1000, 1000, 1400);
+        assertEquals(similar, select(similar));
+
+        // The last table is too large and starts a bucket of its own
+        assertNull(STRATEGY.select(tables(1000, 1000, 1000, 1600)));
+        assertNull(STRATEGY.select(tables(1000, 1000, 1000, 600)));
+    }
+
+    @Test
+    void preferSmallestBucket() {
+        final List<FileTable> files = tables(
+                100_000, 100_000, 100_000, 100_000,
+                1000, 1000, 1000, 1000, 1000,
+                10_000, 10_000, 10_000, 10_000);
+        assertEquals(files.subList(4, 9), select(files));
+    }
+
+    @Test
+    void waitForMinThreshold() {
+        assertNull(STRATEGY.select(tables()));
+        assertNull(STRATEGY.select(tables(1000)));
+        assertNull(STRATEGY.select(tables(1000, 1000, 1000)));
+        assertEquals(4, select(tables(1000, 1000, 1000, 1000)).size());
+    }
+
+    @Test
+    void mergeAtMostMaxThreshold() {
+        final long[] sizes = new long[40];
+        Arrays.fill(sizes, 1000);
+        final List<FileTable> files = tables(sizes);
+
+        // The oldest tables go first
+        assertEquals(files.subList(0, 32), select(files));
+    }
+
+    @Test
+    void noBucketReady() {
+        assertNull(STRATEGY.select(tables(1000, 10_000, 100_000, 1000, 10_000, 100_000, 1000, 10_000)));
+        assertNull(STRATEGY.select(tables(1000, 1000, 1000, 10_000, 1000, 1000, 1000)));
+    }
+
+    @Test
+    void ignoreDeeperLevels() {
+        final List<FileTable> files = new ArrayList<>();
+        files.add(table(0, 1, 1000));
+        files.addAll(tables(1000, 1000, 1000));
+        assertNull(STRATEGY.select(files));
+    }
+
+    private static List<FileTable> select(final List<FileTable> files) {
+        final Compaction compaction = STRATEGY.select(files);
+        assertNotNull(compaction);
+        assertEquals(0, compaction.getOutputLevel());
+        return compaction.getInputs();
+    }
+
+    /**
+     * Describes tables of level 0 from the oldest to the newest without writing them.
+     */
+    private static List<FileTable> tables(final long... sizes) {
+        final List<FileTable> result = new ArrayList<>(sizes.length);
+        for (int i = 0; i < sizes.length; i++) {
+            result.add(table(i + 1, 0, sizes[i]));
+        }
+        return result;
+    }
+
+    private static FileTable table(
+            final int generation,
+            final int level,
+            final long size) {
+        final ByteBuffer key = ByteBuffer.allocate(Integer.BYTES).putInt(0, generation);
+        final Manifest.Entry entry = new Manifest.Entry(
+                generation, level, generation, size, Manifest.NO_CHECKSUM, key, key);
+        return new FileTable(new File(entry.fileName()), entry, CONFIG);
+    }
+}